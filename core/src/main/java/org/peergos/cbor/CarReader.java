@@ -0,0 +1,142 @@
+package org.peergos.cbor;
+
+import io.ipfs.cid.Cid;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Reads a CARv1 file as a stream of blocks. The file starts with a varint length prefixed dag-cbor header naming the
+ * roots, followed by sections each holding a varint length, a binary cid and the block data. Only one block is held
+ * in memory at a time.
+ * <p>
+ * The header is decoded with {@link CborObject}, so its roots are subject to the same checks as any other merkle
+ * link. The cids of blocks are only parsed, and the data is not checked against them.
+ * </p>
+ */
+public class CarReader implements Closeable {
+    public static final int DEFAULT_MAX_SECTION_SIZE = 4 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream m_in;
+    private final int m_maxSectionSize;
+    private final List<Cid> m_roots;
+
+    /**
+     * Creates a new {@link CarReader} instance allowing sections of up to {@link #DEFAULT_MAX_SECTION_SIZE} bytes,
+     * and reads the header.
+     *
+     * @param in the input stream to read the CAR file from, cannot be <code>null</code>.
+     * @throws IOException in case of I/O problems or an invalid header.
+     */
+    public CarReader(InputStream in) throws IOException {
+        this(in, DEFAULT_MAX_SECTION_SIZE);
+    }
+
+    /**
+     * Creates a new {@link CarReader} instance, and reads the header.
+     *
+     * @param in the input stream to read the CAR file from, cannot be <code>null</code>;
+     * @param maxSectionSize the largest header or section to accept, in bytes.
+     * @throws IOException in case of I/O problems or an invalid header.
+     */
+    public CarReader(InputStream in, int maxSectionSize) throws IOException {
+        if (in == null) {
+            throw new IllegalArgumentException("InputStream cannot be null!");
+        }
+        m_in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in, BUFFER_SIZE);
+        m_maxSectionSize = maxSectionSize;
+
+        long headerSize = Varint.read(m_in);
+        if (headerSize < 0)
+            throw new EOFException();
+        if (headerSize == 0 || headerSize > maxSectionSize)
+            throw new IOException("Invalid CAR header size: " + headerSize);
+        CborObject header = CborObject.fromByteArray(readFully(new byte[(int) headerSize]));
+        if (!(header instanceof CborObject.CborMap))
+            throw new IllegalStateException("Invalid CAR header: " + header);
+        CborObject.CborMap map = (CborObject.CborMap) header;
+        Cborable version = map.containsKey("version") ? map.get("version") : null;
+        if (!(version instanceof CborObject.CborLong))
+            throw new IllegalStateException("Invalid CAR header version: " + version);
+        if (((CborObject.CborLong) version).value != 1)
+            throw new IllegalStateException("Unsupported CAR version: " + ((CborObject.CborLong) version).value);
+        Cborable roots = map.containsKey("roots") ? map.get("roots") : null;
+        if (!(roots instanceof CborObject.CborList))
+            throw new IllegalStateException("Invalid CAR header roots: " + roots);
+        List<Cid> res = new ArrayList<>();
+        for (Cborable root : ((CborObject.CborList) roots).value) {
+            if (!(root instanceof CborObject.CborMerkleLink))
+                throw new IllegalStateException("Invalid CAR header root: " + root);
+            res.add((Cid) ((CborObject.CborMerkleLink) root).target);
+        }
+        m_roots = Collections.unmodifiableList(res);
+    }
+
+    /**
+     * @return the roots named in the header.
+     */
+    public List<Cid> roots() {
+        return m_roots;
+    }
+
+    /**
+     * Reads the next block.
+     *
+     * @return the next block, or <code>null</code> at the end of the file.
+     * @throws IOException in case of I/O problems, a truncated section or an invalid cid.
+     */
+    public CborBlock next() throws IOException {
+        long sectionSize = Varint.read(m_in);
+        if (sectionSize < 0)
+            return null;
+        if (sectionSize > m_maxSectionSize)
+            throw new IOException("CAR section too large: " + sectionSize);
+        byte[] cidBytes = readFully(new byte[cidSize((int) sectionSize)]);
+        Cid cid;
+        try {
+            cid = Cid.cast(cidBytes);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid cid in CAR section", e);
+        }
+        return new CborBlock(cid, readFully(new byte[(int) sectionSize - cidBytes.length]));
+    }
+
+    // works out the length of the binary cid at the start of a section, leaving the stream where it was
+    private int cidSize(int sectionSize) throws IOException {
+        byte[] prefix = new byte[Math.min(4 * Varint.MAX_SIZE, sectionSize)];
+        m_in.mark(prefix.length);
+        int n = m_in.readNBytes(prefix, 0, prefix.length);
+        m_in.reset();
+        if (n >= 2 && prefix[0] == 0x12 && prefix[1] == 0x20)
+            return check(34, sectionSize); // cid v0, a bare sha2-256 multihash
+
+        // cid v1: version, codec, then a multihash of hash type, digest size and digest
+        ByteArrayInputStream header = new ByteArrayInputStream(prefix, 0, n);
+        if (Varint.read(header) != 1)
+            throw new IOException("Invalid cid version in CAR section");
+        long codec = Varint.read(header);
+        long hashType = Varint.read(header);
+        long hashSize = Varint.read(header);
+        if (codec < 0 || hashType < 0 || hashSize < 0)
+            throw new EOFException();
+        return check(n - header.available() + hashSize, sectionSize);
+    }
+
+    private static int check(long cidSize, int sectionSize) throws IOException {
+        if (cidSize > sectionSize)
+            throw new IOException("Invalid CAR section: cid longer than section");
+        return (int) cidSize;
+    }
+
+    private byte[] readFully(byte[] buf) throws IOException {
+        if (m_in.readNBytes(buf, 0, buf.length) < buf.length)
+            throw new EOFException();
+        return buf;
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_in.close();
+    }
+}
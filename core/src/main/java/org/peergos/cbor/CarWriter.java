@@ -0,0 +1,87 @@
+package org.peergos.cbor;
+
+import io.ipfs.cid.Cid;
+
+import java.io.*;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Writes a CARv1 file block by block, see {@link CarReader} for the format. Section headers and small blocks are
+ * gathered in a large buffer, while blocks that do not fit go straight to the underlying stream.
+ */
+public class CarWriter implements Closeable, Flushable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream m_out;
+    private final byte[] m_prefix = new byte[Varint.MAX_SIZE];
+
+    /**
+     * Creates a new {@link CarWriter} instance, and writes the header.
+     *
+     * @param out the output stream to write the CAR file to, cannot be <code>null</code>;
+     * @param roots the roots to name in the header.
+     * @throws IOException in case of I/O problems writing the header.
+     */
+    public CarWriter(OutputStream out, List<Cid> roots) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("OutputStream cannot be null!");
+        }
+        m_out = new BufferedOutputStream(out, BUFFER_SIZE);
+        SortedMap<String, Cborable> header = new TreeMap<>(CborObject.CborString.ORDER);
+        header.put("roots", new CborObject.CborList(roots.stream()
+                .map(CborObject.CborMerkleLink::new)
+                .collect(Collectors.toList())));
+        header.put("version", CborObject.CborLong.of(1));
+        byte[] encoded = CborObject.CborMap.build(header).toByteArray();
+        m_out.write(m_prefix, 0, Varint.write(encoded.length, m_prefix, 0));
+        m_out.write(encoded);
+    }
+
+    /**
+     * Writes a block.
+     *
+     * @param cid the cid of the block, cannot be <code>null</code>;
+     * @param data the block data, cannot be <code>null</code>.
+     * @throws IOException in case of I/O problems writing the block.
+     */
+    public void write(Cid cid, byte[] data) throws IOException {
+        write(cid, data, 0, data.length);
+    }
+
+    /**
+     * Writes a block.
+     *
+     * @param block the block to write, cannot be <code>null</code>.
+     * @throws IOException in case of I/O problems writing the block.
+     */
+    public void write(CborBlock block) throws IOException {
+        write(block.cid, block.data, 0, block.data.length);
+    }
+
+    /**
+     * Writes a block held in part of an array.
+     *
+     * @param cid the cid of the block, cannot be <code>null</code>;
+     * @param data the array holding the block data, cannot be <code>null</code>;
+     * @param offset the index of the first byte of the block;
+     * @param length the size of the block in bytes.
+     * @throws IOException in case of I/O problems writing the block.
+     */
+    public void write(Cid cid, byte[] data, int offset, int length) throws IOException {
+        byte[] cidBytes = cid.toBytes();
+        m_out.write(m_prefix, 0, Varint.write((long) cidBytes.length + length, m_prefix, 0));
+        m_out.write(cidBytes);
+        m_out.write(data, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        m_out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_out.close();
+    }
+}
@@ -0,0 +1,128 @@
+package org.peergos.cbor;
+
+import io.ipfs.cid.Cid;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Decodes batches of blocks in parallel. Workers claim small runs of consecutive blocks until the batch is done, so
+ * uneven block sizes still spread evenly, and the calling thread works on the batch too. Results come back in the
+ * order of the input, each holding either a value or the exception its block failed with.
+ */
+public final class CborBatch {
+    // blocks claimed at a time, enough to amortize the claim without starving other workers at the end of a batch
+    private static final int CHUNK = 8;
+
+    private CborBatch() {
+    }
+
+    /**
+     * The outcome for a single block: a value, or the exception thrown for it.
+     */
+    public static final class Result<T> {
+        public final T value;
+        public final RuntimeException error;
+
+        private Result(T value, RuntimeException error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        public boolean isOk() {
+            return error == null;
+        }
+
+        /**
+         * @return the value, rethrowing the block's exception if it failed.
+         */
+        public T get() {
+            if (error != null)
+                throw error;
+            return value;
+        }
+    }
+
+    /**
+     * Decodes every block with {@link CborObject#fromByteArray(byte[])} on the common fork-join pool.
+     */
+    public static List<Result<CborObject>> decode(List<byte[]> blocks) {
+        return apply(blocks, CborObject::fromByteArray, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Decodes every block with {@link CborObject#fromByteArray(byte[])} on the given executor.
+     */
+    public static List<Result<CborObject>> decode(List<byte[]> blocks, Executor executor) {
+        return apply(blocks, CborObject::fromByteArray, executor);
+    }
+
+    /**
+     * Finds the links in every block with {@link CborObject#getLinks(Cid, byte[])} on the common fork-join pool.
+     *
+     * @param blocks the blocks to scan keyed by their cid, results are in the iteration order of the map.
+     */
+    public static Map<Cid, Result<List<Cid>>> getLinks(Map<Cid, byte[]> blocks) {
+        return getLinks(blocks, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds the links in every block with {@link CborObject#getLinks(Cid, byte[])} on the given executor.
+     *
+     * @param blocks the blocks to scan keyed by their cid, results are in the iteration order of the map.
+     */
+    public static Map<Cid, Result<List<Cid>>> getLinks(Map<Cid, byte[]> blocks, Executor executor) {
+        List<Map.Entry<Cid, byte[]>> entries = new ArrayList<>(blocks.entrySet());
+        List<Result<List<Cid>>> results = apply(entries, e -> CborObject.getLinks(e.getKey(), e.getValue()), executor);
+        Map<Cid, Result<List<Cid>>> res = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size(); i++)
+            res.put(entries.get(i).getKey(), results.get(i));
+        return res;
+    }
+
+    /**
+     * Applies a function to every input in parallel, e.g. {@link CborObject#fromByteArrayLazy(byte[])} or a
+     * <code>fromCbor</code> method, and waits for the whole batch to finish.
+     *
+     * @param inputs the inputs, typically encoded blocks;
+     * @param fn the function to apply, which must be safe to call from several threads at once;
+     * @param executor the executor to run workers on, in addition to the calling thread.
+     * @return a result for each input, in the same order.
+     */
+    @SuppressWarnings("unchecked")
+    public static <I, T> List<Result<T>> apply(List<I> inputs, Function<? super I, ? extends T> fn, Executor executor) {
+        Object[] in = inputs.toArray();
+        Result<T>[] out = new Result[in.length];
+        AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            int start;
+            while ((start = next.getAndAdd(CHUNK)) < in.length) {
+                int end = Math.min(start + CHUNK, in.length);
+                for (int i = start; i < end; i++) {
+                    try {
+                        out[i] = new Result<>(fn.apply((I) in[i]), null);
+                    } catch (RuntimeException e) {
+                        out[i] = new Result<>(null, e);
+                    }
+                }
+            }
+        };
+
+        int chunks = (in.length + CHUNK - 1) / CHUNK;
+        int helpers = Math.min(chunks, parallelism(executor)) - 1;
+        CompletableFuture<?>[] running = new CompletableFuture[Math.max(helpers, 0)];
+        for (int i = 0; i < running.length; i++)
+            running[i] = CompletableFuture.runAsync(worker, executor);
+        worker.run();
+        CompletableFuture.allOf(running).join();
+        return Arrays.asList(out);
+    }
+
+    private static int parallelism(Executor executor) {
+        if (executor instanceof ForkJoinPool)
+            return ((ForkJoinPool) executor).getParallelism();
+        return Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,16 @@
+package org.peergos.cbor;
+
+import io.ipfs.cid.Cid;
+
+/**
+ * An encoded block together with its cid.
+ */
+public final class CborBlock {
+    public final Cid cid;
+    public final byte[] data;
+
+    public CborBlock(Cid cid, byte[] data) {
+        this.cid = cid;
+        this.data = data;
+    }
+}
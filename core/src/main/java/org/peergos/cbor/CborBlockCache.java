@@ -0,0 +1,260 @@
+package org.peergos.cbor;
+
+import io.ipfs.cid.Cid;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * A concurrent cache of decoded blocks keyed by cid, bounded by the estimated heap size of the decoded objects.
+ * Cached objects are shared between callers, so they are frozen when added, see {@link CborObject.CborMap#freeze()}.
+ * <p>
+ * Eviction follows the CLOCK policy: blocks are queued in insertion order, and a block that has been read since it
+ * was last considered gets a second chance instead of being evicted. Reads take no locks; a single thread at a time
+ * evicts, after an insertion takes the cache over its bound. Invalidated blocks are only marked dead, to be dropped
+ * when they reach the head of the queue, or all at once when they outnumber the cached blocks.
+ * </p>
+ */
+public class CborBlockCache {
+    private static final class Entry {
+        private final Cid cid;
+        private final CborObject value;
+        private final long weight;
+        private volatile boolean referenced;
+        // set once the entry has left the map through invalidate, while it may still be queued
+        private volatile boolean dead;
+
+        private Entry(Cid cid, CborObject value, long weight) {
+            this.cid = cid;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final long m_maxWeight;
+    private final Map<Cid, Entry> m_entries = new ConcurrentHashMap<>();
+    private final Queue<Entry> m_clock = new ConcurrentLinkedQueue<>();
+    private final AtomicLong m_weight = new AtomicLong();
+    // the number of dead entries queued, or about to be
+    private final AtomicInteger m_dead = new AtomicInteger();
+    private final ReentrantLock m_evictionLock = new ReentrantLock();
+    private final LongAdder m_hits = new LongAdder();
+    private final LongAdder m_misses = new LongAdder();
+    private final LongAdder m_evictions = new LongAdder();
+
+    /**
+     * Creates a new {@link CborBlockCache} instance.
+     *
+     * @param maxWeight the bound on the estimated heap size of all cached objects, in bytes.
+     */
+    public CborBlockCache(long maxWeight) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("Invalid maximum weight!");
+        }
+        m_maxWeight = maxWeight;
+    }
+
+    /**
+     * @return the cached object for a block, or <code>null</code> if it is not cached.
+     */
+    public CborObject getIfPresent(Cid cid) {
+        Entry e = m_entries.get(cid);
+        if (e == null) {
+            m_misses.increment();
+            return null;
+        }
+        hit(e);
+        return e.value;
+    }
+
+    /**
+     * Returns the cached object for a block, decoding and caching it on a miss. Concurrent misses for the same block
+     * may each load and decode it, but all callers get the same cached instance.
+     *
+     * @param cid the cid of the block;
+     * @param loader supplies the encoded block on a miss, or <code>null</code> if it is not available.
+     * @return the frozen decoded block, or <code>null</code> if the loader had no block.
+     */
+    public CborObject get(Cid cid, Function<Cid, byte[]> loader) {
+        Entry e = m_entries.get(cid);
+        if (e != null) {
+            hit(e);
+            return e.value;
+        }
+        m_misses.increment();
+        byte[] block = loader.apply(cid);
+        return block == null ? null : add(cid, block);
+    }
+
+    /**
+     * Decodes a block and caches it, unless it is already cached.
+     *
+     * @return the frozen decoded block.
+     */
+    public CborObject put(Cid cid, byte[] block) {
+        return add(cid, block);
+    }
+
+    public void invalidate(Cid cid) {
+        Entry e = m_entries.remove(cid);
+        if (e != null) {
+            m_weight.addAndGet(-e.weight);
+            e.dead = true;
+            if (m_dead.incrementAndGet() > m_entries.size())
+                compact();
+        }
+    }
+
+    public long hits() {
+        return m_hits.sum();
+    }
+
+    public long misses() {
+        return m_misses.sum();
+    }
+
+    public long evictions() {
+        return m_evictions.sum();
+    }
+
+    /**
+     * @return the estimated heap size of all cached objects, in bytes.
+     */
+    public long weight() {
+        return m_weight.get();
+    }
+
+    public int size() {
+        return m_entries.size();
+    }
+
+    // the number of entries queued for eviction, live or dead
+    int queued() {
+        return m_clock.size();
+    }
+
+    private void hit(Entry e) {
+        m_hits.increment();
+        if (!e.referenced)
+            e.referenced = true;
+    }
+
+    private CborObject add(Cid cid, byte[] block) {
+        CborObject value = CborObject.CborMap.frozen(CborObject.fromByteArray(block));
+        long weight = 64 + retainedSize(value);
+        if (weight > m_maxWeight)
+            return value;
+        Entry e = new Entry(cid, value, weight);
+        Entry existing = m_entries.putIfAbsent(cid, e);
+        if (existing != null)
+            return existing.value;
+        m_weight.addAndGet(weight);
+        m_clock.offer(e);
+        if (m_weight.get() > m_maxWeight)
+            evict();
+        return value;
+    }
+
+    private void evict() {
+        if (!m_evictionLock.tryLock())
+            return;
+        try {
+            while (m_weight.get() > m_maxWeight) {
+                Entry e = m_clock.poll();
+                if (e == null)
+                    break;
+                if (e.dead) {
+                    m_dead.decrementAndGet();
+                } else if (e.referenced) {
+                    e.referenced = false;
+                    m_clock.offer(e);
+                } else if (m_entries.remove(e.cid, e)) {
+                    m_weight.addAndGet(-e.weight);
+                    m_evictions.increment();
+                } else {
+                    m_dead.decrementAndGet(); // invalidated while it was out of the queue
+                }
+            }
+        } finally {
+            m_evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the dead entries from the queue in a single pass, unless another thread is evicting.
+     */
+    private void compact() {
+        if (!m_evictionLock.tryLock())
+            return;
+        try {
+            for (Iterator<Entry> it = m_clock.iterator(); it.hasNext(); ) {
+                if (it.next().dead) {
+                    it.remove();
+                    m_dead.decrementAndGet();
+                }
+            }
+        } finally {
+            m_evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Estimates the heap size of a decoded object, assuming compressed references and compact strings.
+     */
+    static long retainedSize(Cborable value) {
+        if (isShared(value))
+            return 0;
+        if (value instanceof CborObject.CborMap) {
+            CborObject.CborMap map = (CborObject.CborMap) value;
+            long[] size = {32 + 2 * array(map.size())};
+            map.applyToAll((k, v) -> size[0] += string(k.length()) + retainedSize(v));
+            return size[0];
+        }
+        if (value instanceof CborObject.CborList) {
+            CborObject.CborList list = (CborObject.CborList) value;
+            // CborList, the view and its primitive array
+            if (list.isPacked())
+                return 40 + bytes(8L * list.value.size());
+            // CborList, the unmodifiable wrapper and the list it wraps
+            long size = 64 + array(list.value.size());
+            for (Cborable item : ((CborObject.CborList) value).value)
+                size += retainedSize(item);
+            return size;
+        }
+        if (value instanceof CborObject.CborString)
+            return string(((CborObject.CborString) value).value.length());
+        if (value instanceof CborObject.CborByteArray)
+            return 16 + bytes(((CborObject.CborByteArray) value).value.length);
+        if (value instanceof CborObject.CborMerkleLink)
+            return 16 + 40 + bytes(((CborObject.CborMerkleLink) value).target.getHash().length);
+        if (value instanceof CborObject.CborBigint)
+            return 16 + 40 + bytes(8);
+        return 24;
+    }
+
+    private static boolean isShared(Cborable value) {
+        if (value instanceof CborObject.CborLong)
+            return CborObject.CborLong.of(((CborObject.CborLong) value).value) == value;
+        return value == CborObject.CborNull.NULL || value == CborObject.CborBoolean.TRUE
+                || value == CborObject.CborBoolean.FALSE || value == CborObject.CborString.EMPTY
+                || value == CborObject.CborList.EMPTY;
+    }
+
+    // CborString, String and its byte array
+    private static long string(int length) {
+        return 16 + 24 + bytes(length);
+    }
+
+    private static long array(int length) {
+        return (16 + 4L * length + 7) & ~7;
+    }
+
+    private static long bytes(long length) {
+        return (16 + length + 7) & ~7;
+    }
+}
@@ -0,0 +1,300 @@
+package org.peergos.cbor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.peergos.cbor.CborConstants.*;
+
+/**
+ * Provides a decoder capable of handling CBOR encoded data that is already in memory, as a byte array or a
+ * {@link ByteBuffer}. Headers and lengths are decoded with plain index arithmetic, so peeking and reading values
+ * does not go through a {@link PushbackInputStream} and does not allocate.
+ */
+public class CborBufferDecoder extends CborDecoder {
+    protected final byte[] m_buf;
+    protected final int m_limit;
+    protected int m_pos;
+    private boolean m_lazyMaps;
+
+    /**
+     * Creates a new {@link CborBufferDecoder} instance over a whole byte array.
+     *
+     * @param buf the CBOR-encoded data, cannot be <code>null</code>.
+     */
+    public CborBufferDecoder(byte[] buf) {
+        this(buf, 0, buf == null ? 0 : buf.length);
+    }
+
+    /**
+     * Creates a new {@link CborBufferDecoder} instance over a range of a byte array.
+     *
+     * @param buf the CBOR-encoded data, cannot be <code>null</code>;
+     * @param offset the index of the first byte to decode;
+     * @param length the number of bytes available to decode.
+     */
+    public CborBufferDecoder(byte[] buf, int offset, int length) {
+        if (buf == null) {
+            throw new IllegalArgumentException("Buffer cannot be null!");
+        }
+        if (offset < 0 || length < 0 || offset > buf.length - length) {
+            throw new IllegalArgumentException("Invalid buffer range!");
+        }
+        m_buf = buf;
+        m_pos = offset;
+        m_limit = offset + length;
+    }
+
+    /**
+     * Creates a new {@link CborBufferDecoder} instance over the remaining bytes of a {@link ByteBuffer}. The position
+     * of the given buffer is not modified. Buffers without an accessible backing array are copied, see
+     * {@link CborByteBufferDecoder} to read those in place.
+     *
+     * @param buf the CBOR-encoded data, cannot be <code>null</code>.
+     */
+    public CborBufferDecoder(ByteBuffer buf) {
+        this(arrayOf(buf), offsetOf(buf), buf.remaining());
+    }
+
+    private static byte[] arrayOf(ByteBuffer buf) {
+        if (buf.hasArray())
+            return buf.array();
+        byte[] copy = new byte[buf.remaining()];
+        buf.duplicate().get(copy);
+        return copy;
+    }
+
+    private static int offsetOf(ByteBuffer buf) {
+        return buf.hasArray() ? buf.arrayOffset() + buf.position() : 0;
+    }
+
+    /**
+     * @return the index in the underlying array of the next byte to be decoded.
+     */
+    public int position() {
+        return m_pos;
+    }
+
+    /**
+     * @return the number of bytes left to decode.
+     */
+    public int remaining() {
+        return m_limit - m_pos;
+    }
+
+    /**
+     * @return whether maps are decoded lazily, see {@link #setLazyMaps(boolean)}.
+     */
+    public boolean isLazyMaps() {
+        return m_lazyMaps;
+    }
+
+    /**
+     * Sets whether {@link CborObject#deserialize} decodes maps lazily. A lazy map checks its keys up front but only
+     * records the byte range of each value, decoding it on first access.
+     *
+     * @param lazyMaps <code>true</code> to decode maps lazily.
+     */
+    public void setLazyMaps(boolean lazyMaps) {
+        m_lazyMaps = lazyMaps;
+    }
+
+    /**
+     * Checks that the next complete value is canonical dag-cbor, with every check {@link CborObject#deserialize}
+     * makes: canonical lengths and integers, sorted and unique text keys, finite doubles, valid UTF-8, allowed merkle
+     * links and at most {@link CborDeserializer#DEFAULT_MAX_DEPTH} levels of nesting. Nothing is decoded apart from
+     * the targets of merkle links.
+     *
+     * @throws IOException in case the value is truncated, not well-formed or has invalid UTF-8.
+     * @throws IllegalStateException in case the value is not canonical dag-cbor.
+     */
+    public void validateValue() throws IOException {
+        // one frame per open map or array: items left (keys and values for maps), and the last key of a map
+        long[] left = new long[8];
+        boolean[] isMap = new boolean[8];
+        int[] keyStart = new int[8];
+        int[] keyLength = new int[8];
+        int[] keyChars = new int[8];
+        int depth = 0;
+        do {
+            boolean isKey = false;
+            if (depth > 0) {
+                int top = depth - 1;
+                if (left[top] == 0) {
+                    depth--;
+                    continue;
+                }
+                left[top]--;
+                isKey = isMap[top] && (left[top] & 1) == 1;
+            }
+            int ib = read();
+            int mt = ib >>> 5;
+            int ai = ib & 0x1f;
+            if (isKey && mt != TYPE_TEXT_STRING)
+                throw new IllegalStateException("Invalid cbor map: non string key!");
+            switch (mt) {
+                case TYPE_UNSIGNED_INTEGER:
+                case TYPE_NEGATIVE_INTEGER:
+                    readUInt(ai, false /* breakAllowed */, true);
+                    break;
+                case TYPE_BYTE_STRING:
+                    advance(readLength(ai));
+                    break;
+                case TYPE_TEXT_STRING: {
+                    int len = readLength(ai);
+                    int start = advance(len);
+                    int chars = CborDecoder.utf16Length(m_buf, start, len);
+                    if (isKey) {
+                        int top = depth - 1;
+                        if (keyStart[top] >= 0) {
+                            int cmp = compareKeys(start, len, chars, keyStart[top], keyLength[top], keyChars[top]);
+                            if (cmp < 0)
+                                throw new IllegalStateException("Unsorted cbor map keys!");
+                            if (cmp == 0)
+                                throw new IllegalStateException("Invalid cbor map: duplicate key!");
+                        }
+                        keyStart[top] = start;
+                        keyLength[top] = len;
+                        keyChars[top] = chars;
+                    }
+                    break;
+                }
+                case TYPE_ARRAY:
+                case TYPE_MAP: {
+                    long n = readUInt(ai, false /* breakAllowed */, false);
+                    if (n > remaining())
+                        throw new EOFException();
+                    if (n == 0)
+                        break;
+                    if (depth == CborDeserializer.DEFAULT_MAX_DEPTH)
+                        throw new IllegalStateException("Invalid cbor: nested deeper than " + depth + " levels!");
+                    if (depth == left.length) {
+                        int size = depth * 2;
+                        left = Arrays.copyOf(left, size);
+                        isMap = Arrays.copyOf(isMap, size);
+                        keyStart = Arrays.copyOf(keyStart, size);
+                        keyLength = Arrays.copyOf(keyLength, size);
+                        keyChars = Arrays.copyOf(keyChars, size);
+                    }
+                    left[depth] = mt == TYPE_MAP ? 2 * n : n;
+                    isMap[depth] = mt == TYPE_MAP;
+                    keyStart[depth] = -1;
+                    depth++;
+                    break;
+                }
+                case TYPE_TAG: {
+                    checkLinkTag(readUInt(ai, false /* breakAllowed */, false));
+                    readLinkTarget(remaining());
+                    break;
+                }
+                default:
+                    if (ai == DOUBLE_PRECISION_FLOAT) {
+                        int p = advance(8);
+                        // an all ones exponent is an infinity or NaN
+                        if ((m_buf[p] & 0x7f) == 0x7f && (m_buf[p + 1] & 0xf0) == 0xf0)
+                            throw new IllegalStateException("dag-cbor only supports finite floats!");
+                    } else if (ai != FALSE && ai != TRUE && ai != NULL)
+                        throw new IllegalStateException("Unimplemented simple type! " + ai);
+            }
+        } while (depth > 0);
+    }
+
+    private int readLength(int ai) throws IOException {
+        long len = readUInt(ai, false /* breakAllowed */, false);
+        if (len > remaining())
+            throw new EOFException();
+        return (int) len;
+    }
+
+    // orders two validated keys like CborObject.CborString.compare, by length in chars and then by char values
+    private int compareKeys(int a, int aLen, int aChars, int b, int bLen, int bChars) throws IOException {
+        if (aChars != bChars)
+            return aChars - bChars;
+        if (aLen == aChars && bLen == bChars) // both ASCII
+            return Arrays.compare(m_buf, a, a + aLen, m_buf, b, b + bLen);
+        return CborObject.CborString.compare(CborDecoder.decodeUtf8(m_buf, a, aLen), CborDecoder.decodeUtf8(m_buf, b, bLen));
+    }
+
+    @Override
+    protected long remainingBound() {
+        return remaining();
+    }
+
+    @Override
+    protected void skipBytes(long len) throws IOException {
+        if (len > remaining()) {
+            throw new EOFException();
+        }
+        m_pos += (int) len;
+    }
+
+    @Override
+    public String readTextString(int maxLen) throws IOException {
+        int len = readStringLength(TYPE_TEXT_STRING, maxLen);
+        return decodeUtf8(m_buf, advance(len), len);
+    }
+
+    @Override
+    public ByteBuffer readByteStringSlice(int maxLen) throws IOException {
+        int len = readStringLength(TYPE_BYTE_STRING, maxLen);
+        return ByteBuffer.wrap(m_buf, advance(len), len).slice();
+    }
+
+    @Override
+    public CborType peekType() throws IOException {
+        if (m_pos >= m_limit) {
+            // EOF, nothing to peek at...
+            return null;
+        }
+        return CborType.valueOf(m_buf[m_pos]);
+    }
+
+    @Override
+    protected int read() throws IOException {
+        if (m_pos >= m_limit) {
+            throw new EOFException();
+        }
+        return m_buf[m_pos++] & 0xff;
+    }
+
+    @Override
+    protected int readUInt16() throws IOException {
+        int p = advance(2);
+        return (m_buf[p] & 0xFF) << 8 | (m_buf[p + 1] & 0xFF);
+    }
+
+    @Override
+    protected long readUInt32() throws IOException {
+        int p = advance(4);
+        return ((m_buf[p] & 0xFF) << 24 | (m_buf[p + 1] & 0xFF) << 16 | (m_buf[p + 2] & 0xFF) << 8 | (m_buf[p + 3] & 0xFF)) & 0xffffffffL;
+    }
+
+    @Override
+    protected long readUInt64() throws IOException {
+        int p = advance(8);
+        return (m_buf[p] & 0xFFL) << 56 | (m_buf[p + 1] & 0xFFL) << 48 | (m_buf[p + 2] & 0xFFL) << 40 | (m_buf[p + 3] & 0xFFL) << 32 | //
+                (m_buf[p + 4] & 0xFFL) << 24 | (m_buf[p + 5] & 0xFFL) << 16 | (m_buf[p + 6] & 0xFFL) << 8 | (m_buf[p + 7] & 0xFFL);
+    }
+
+    @Override
+    protected byte[] readFully(byte[] buf) throws IOException {
+        System.arraycopy(m_buf, advance(buf.length), buf, 0, buf.length);
+        return buf;
+    }
+
+    /**
+     * Consumes the given number of bytes.
+     *
+     * @param len the number of bytes to consume, &gt;= 0.
+     * @return the index of the first consumed byte.
+     * @throws EOFException in case fewer than <tt>len</tt> bytes remain.
+     */
+    protected int advance(int len) throws EOFException {
+        int p = m_pos;
+        if (len > m_limit - p) {
+            throw new EOFException();
+        }
+        m_pos = p + len;
+        return p;
+    }
+}
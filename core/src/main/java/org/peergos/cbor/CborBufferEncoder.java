@@ -0,0 +1,233 @@
+package org.peergos.cbor;
+
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import static org.peergos.cbor.CborConstants.*;
+
+/**
+ * Provides an encoder that writes CBOR-encoded data into an internal, growable byte array. Multi-byte headers are
+ * stored with a single big-endian write, and the result can be handed back without copying when the buffer is
+ * exactly full, in which case the encoder moves to a new buffer before writing again, or viewed as a
+ * {@link ByteBuffer}. The output can also be hashed as it is written, a chunk at a time
+ * while it is still in cache, see {@link #CborBufferEncoder(int, MessageDigest)}.
+ */
+public class CborBufferEncoder extends CborEncoder {
+    private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final int HASH_CHUNK = 16 * 1024;
+
+    private byte[] m_buf;
+    private int m_size;
+    // whether m_buf has been handed out by toByteArray, and so must not be written to again
+    private boolean m_shared;
+    private final MessageDigest m_digest;
+    private int m_hashed;
+
+    /**
+     * Creates a new {@link CborBufferEncoder} instance with a default initial capacity.
+     */
+    public CborBufferEncoder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new {@link CborBufferEncoder} instance.
+     *
+     * @param initialCapacity the initial size of the internal buffer, &gt;= 0.
+     */
+    public CborBufferEncoder(int initialCapacity) {
+        this(initialCapacity, null);
+    }
+
+    /**
+     * Creates a new {@link CborBufferEncoder} instance with a default initial capacity that feeds everything written
+     * to a digest.
+     *
+     * @param digest the digest to update, or <code>null</code> for none.
+     */
+    public CborBufferEncoder(MessageDigest digest) {
+        this(DEFAULT_CAPACITY, digest);
+    }
+
+    /**
+     * Creates a new {@link CborBufferEncoder} instance that feeds everything written to a digest.
+     *
+     * @param initialCapacity the initial size of the internal buffer, &gt;= 0;
+     * @param digest the digest to update, or <code>null</code> for none.
+     */
+    public CborBufferEncoder(int initialCapacity, MessageDigest digest) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Invalid initial capacity!");
+        }
+        m_buf = new byte[initialCapacity];
+        m_digest = digest;
+    }
+
+    /**
+     * @return the number of bytes written so far.
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * Discards everything written so far, keeping the internal buffer for reuse unless it has been returned by
+     * {@link #toByteArray()}.
+     */
+    public void reset() {
+        m_size = 0;
+        m_hashed = 0;
+        if (m_digest != null)
+            m_digest.reset();
+    }
+
+    /**
+     * Completes the digest of everything written so far, and resets it.
+     *
+     * @return the digest.
+     */
+    public byte[] digest() {
+        if (m_digest == null) {
+            throw new IllegalStateException("No digest to complete!");
+        }
+        m_digest.update(m_buf, m_hashed, m_size - m_hashed);
+        m_hashed = m_size;
+        return m_digest.digest();
+    }
+
+    /**
+     * Returns the encoded bytes. If the internal buffer is exactly full it is returned as is, and this encoder copies
+     * it before writing anything else, so the result is never changed afterwards; otherwise a trimmed copy is
+     * returned.
+     *
+     * @return the CBOR-encoded bytes written so far.
+     */
+    public byte[] toByteArray() {
+        if (m_size != m_buf.length)
+            return Arrays.copyOf(m_buf, m_size);
+        m_shared = true;
+        return m_buf;
+    }
+
+    /**
+     * @return a read-only view of the encoded bytes written so far, without copying.
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(m_buf, 0, m_size).asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the encoded bytes written so far to the given output stream in a single call.
+     *
+     * @param out the output stream to write to, cannot be <code>null</code>.
+     * @throws IOException in case of I/O problems writing to the given output stream.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(m_buf, 0, m_size);
+    }
+
+    @Override
+    protected void write(int b) {
+        ensureCapacity(1);
+        m_buf[m_size++] = (byte) b;
+    }
+
+    @Override
+    protected void write(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, m_buf, m_size, len);
+        m_size += len;
+    }
+
+    /**
+     * Copies ASCII strings straight into the buffer, without encoding them to a separate array first. Other strings
+     * are encoded as usual.
+     */
+    @Override
+    public void writeTextString(String value) throws IOException {
+        int len = value == null ? 0 : value.length();
+        // room for the header too, so nothing written below is hashed before it is final
+        ensureCapacity(headerSize(len) + len);
+        int start = m_size;
+        writeType(TYPE_TEXT_STRING, len);
+        byte[] buf = m_buf;
+        int pos = m_size;
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                m_size = start;
+                super.writeTextString(value);
+                return;
+            }
+            buf[pos + i] = (byte) c;
+        }
+        m_size = pos + len;
+    }
+
+    @Override
+    protected void write(ByteBuffer b) {
+        int len = b.remaining();
+        ensureCapacity(len);
+        b.get(b.position(), m_buf, m_size, len);
+        m_size += len;
+    }
+
+    @Override
+    protected void writeUInt8(int mt, int value) {
+        ensureCapacity(2);
+        m_buf[m_size] = (byte) (mt | ONE_BYTE);
+        m_buf[m_size + 1] = (byte) value;
+        m_size += 2;
+    }
+
+    @Override
+    protected void writeUInt16(int mt, int value) {
+        ensureCapacity(3);
+        m_buf[m_size] = (byte) (mt | TWO_BYTES);
+        SHORT.set(m_buf, m_size + 1, (short) value);
+        m_size += 3;
+    }
+
+    @Override
+    protected void writeUInt32(int mt, int value) {
+        ensureCapacity(5);
+        m_buf[m_size] = (byte) (mt | FOUR_BYTES);
+        INT.set(m_buf, m_size + 1, value);
+        m_size += 5;
+    }
+
+    @Override
+    protected void writeUInt64(int mt, long value) {
+        ensureCapacity(9);
+        m_buf[m_size] = (byte) (mt | EIGHT_BYTES);
+        LONG.set(m_buf, m_size + 1, value);
+        m_size += 9;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (m_digest != null && m_size - m_hashed >= HASH_CHUNK) {
+            m_digest.update(m_buf, m_hashed, m_size - m_hashed);
+            m_hashed = m_size;
+        }
+        int required = m_size + extra;
+        if (required < 0) {
+            throw new OutOfMemoryError("CBOR output too large!");
+        }
+        if (required > m_buf.length) {
+            int newCapacity = Math.max(required, m_buf.length << 1);
+            m_buf = Arrays.copyOf(m_buf, newCapacity < 0 ? Integer.MAX_VALUE - 8 : newCapacity);
+            m_shared = false;
+        } else if (m_shared) {
+            m_buf = Arrays.copyOf(m_buf, m_buf.length);
+            m_shared = false;
+        }
+    }
+}
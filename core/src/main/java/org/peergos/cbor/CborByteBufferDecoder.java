@@ -0,0 +1,138 @@
+package org.peergos.cbor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.peergos.cbor.CborConstants.*;
+
+/**
+ * Provides a decoder capable of handling CBOR encoded data in a {@link ByteBuffer} without a backing array, such as
+ * a direct buffer or a region of a memory mapped file. The data is read in place with absolute gets; only the bytes
+ * of strings and links end up on the heap, in the values decoded from them.
+ * <p>
+ * Buffers with a backing array are better handled by {@link CborBufferDecoder}.
+ * </p>
+ */
+public class CborByteBufferDecoder extends CborDecoder {
+    protected final ByteBuffer m_buf;
+    protected final int m_limit;
+    protected int m_pos;
+
+    /**
+     * Creates a new {@link CborByteBufferDecoder} instance over the remaining bytes of a buffer. The position of the
+     * given buffer is not modified.
+     *
+     * @param buf the CBOR-encoded data, cannot be <code>null</code>.
+     */
+    public CborByteBufferDecoder(ByteBuffer buf) {
+        this(buf, buf.position(), buf.remaining());
+    }
+
+    /**
+     * Creates a new {@link CborByteBufferDecoder} instance over a range of a buffer, which must lie within its limit.
+     * The position of the given buffer is ignored and not modified.
+     *
+     * @param buf the CBOR-encoded data, cannot be <code>null</code>;
+     * @param offset the absolute index of the first byte to decode;
+     * @param length the number of bytes available to decode.
+     */
+    public CborByteBufferDecoder(ByteBuffer buf, int offset, int length) {
+        if (buf == null) {
+            throw new IllegalArgumentException("Buffer cannot be null!");
+        }
+        if (offset < 0 || length < 0 || offset > buf.limit() - length) {
+            throw new IllegalArgumentException("Invalid buffer range!");
+        }
+        m_buf = buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+        m_pos = offset;
+        m_limit = offset + length;
+    }
+
+    /**
+     * @return the absolute index in the underlying buffer of the next byte to be decoded.
+     */
+    public int position() {
+        return m_pos;
+    }
+
+    /**
+     * @return the number of bytes left to decode.
+     */
+    public int remaining() {
+        return m_limit - m_pos;
+    }
+
+    @Override
+    public ByteBuffer readByteStringSlice(int maxLen) throws IOException {
+        int len = readStringLength(TYPE_BYTE_STRING, maxLen);
+        return m_buf.slice(advance(len), len);
+    }
+
+    @Override
+    public CborType peekType() throws IOException {
+        if (m_pos >= m_limit) {
+            // EOF, nothing to peek at...
+            return null;
+        }
+        return CborType.valueOf(m_buf.get(m_pos));
+    }
+
+    @Override
+    protected int read() throws IOException {
+        if (m_pos >= m_limit) {
+            throw new EOFException();
+        }
+        return m_buf.get(m_pos++) & 0xff;
+    }
+
+    @Override
+    protected int readUInt16() throws IOException {
+        return m_buf.getShort(advance(2)) & 0xffff;
+    }
+
+    @Override
+    protected long readUInt32() throws IOException {
+        return m_buf.getInt(advance(4)) & 0xffffffffL;
+    }
+
+    @Override
+    protected long readUInt64() throws IOException {
+        return m_buf.getLong(advance(8));
+    }
+
+    @Override
+    protected long remainingBound() {
+        return remaining();
+    }
+
+    @Override
+    protected void skipBytes(long len) throws IOException {
+        if (len > m_limit - m_pos) {
+            throw new EOFException();
+        }
+        m_pos += (int) len;
+    }
+
+    @Override
+    protected byte[] readFully(byte[] buf) throws IOException {
+        m_buf.get(advance(buf.length), buf);
+        return buf;
+    }
+
+    /**
+     * Consumes the given number of bytes.
+     *
+     * @param len the number of bytes to consume, &gt;= 0.
+     * @return the absolute index of the first consumed byte.
+     * @throws EOFException in case fewer than <tt>len</tt> bytes remain.
+     */
+    protected int advance(int len) throws EOFException {
+        int p = m_pos;
+        if (len > m_limit - p) {
+            throw new EOFException();
+        }
+        m_pos = p + len;
+        return p;
+    }
+}
@@ -7,8 +7,17 @@ package org.peergos.cbor;
  * Apache Public License v2.0
  */
 
+import io.ipfs.cid.Cid;
+import io.ipfs.multihash.Multihash;
+
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.MalformedInputException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 
@@ -19,7 +28,11 @@ import static org.peergos.cbor.CborType.*;
  * Provides a decoder capable of handling CBOR encoded data from a {@link InputStream}.
  */
 public class CborDecoder {
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
     protected final PushbackInputStream m_is;
+    private CborKeyCache m_keyCache;
+    private boolean m_sliceByteStrings;
 
     /**
      * Creates a new {@link CborDecoder} instance.
@@ -33,6 +46,48 @@ public class CborDecoder {
         m_is = (is instanceof PushbackInputStream) ? (PushbackInputStream) is : new PushbackInputStream(is);
     }
 
+    /**
+     * Creates a new {@link CborDecoder} instance for subclasses that do not read from an {@link InputStream}. Such
+     * subclasses must override {@link #peekType()}, {@link #read()} and {@link #readFully(byte[])}.
+     */
+    protected CborDecoder() {
+        m_is = null;
+    }
+
+    /**
+     * @return the cache used for map keys by {@link CborObject#deserialize}, or <code>null</code> if there is none.
+     */
+    public CborKeyCache getKeyCache() {
+        return m_keyCache;
+    }
+
+    /**
+     * Sets a cache for {@link CborObject#deserialize} to intern map keys in.
+     *
+     * @param keyCache the cache to use, or <code>null</code> to decode every key.
+     */
+    public void setKeyCache(CborKeyCache keyCache) {
+        m_keyCache = keyCache;
+    }
+
+    /**
+     * @return whether byte strings are decoded as slices of the source, see {@link #setSliceByteStrings(boolean)}.
+     */
+    public boolean isSliceByteStrings() {
+        return m_sliceByteStrings;
+    }
+
+    /**
+     * Sets whether {@link CborObject#deserialize} decodes byte strings as {@link CborObject.CborByteSlice} values,
+     * which share the bytes of the source buffer instead of copying them. The source must then not be modified while
+     * the decoded values are in use. Decoders reading from a stream still copy each byte string once.
+     *
+     * @param sliceByteStrings <code>true</code> to decode byte strings as slices of the source.
+     */
+    public void setSliceByteStrings(boolean sliceByteStrings) {
+        m_sliceByteStrings = sliceByteStrings;
+    }
+
     private static void fail(String msg, Object... args) throws IOException {
         throw new IOException(msg + Arrays.toString(args));
     }
@@ -101,14 +156,17 @@ public class CborDecoder {
      * @throws IOException in case of I/O problems reading the CBOR-encoded value from the underlying input stream.
      */
     public byte[] readByteString(int maxLen) throws IOException {
-        long len = readMajorTypeWithSize(TYPE_BYTE_STRING);
-        if (len < 0)
-            fail("Infinite-length byte strings not supported!");
-        if (len > Integer.MAX_VALUE)
-            fail("String length too long!");
-        if (len > maxLen)
-            fail("Invalid cbor: byte string longer than original bytes!");
-        return readFully(new byte[(int) len]);
+        return readFully(new byte[readStringLength(TYPE_BYTE_STRING, maxLen)]);
+    }
+
+    /**
+     * Reads a byte string value in CBOR format, without copying it where the decoder can avoid that.
+     *
+     * @return a buffer holding exactly the bytes of the string, sharing the source data of in-memory decoders.
+     * @throws IOException in case of I/O problems reading the CBOR-encoded value from the underlying input stream.
+     */
+    public ByteBuffer readByteStringSlice(int maxLen) throws IOException {
+        return ByteBuffer.wrap(readByteString(maxLen));
     }
 
     /**
@@ -179,7 +237,7 @@ public class CborDecoder {
      * @throws IOException in case of I/O problems reading the CBOR-encoded value from the underlying input stream.
      */
     public long readInt() throws IOException {
-        int ib = m_is.read();
+        int ib = read();
 
         // in case of negative integers, extends the sign to all bits; otherwise zero...
         long ui = expectIntegerType(ib);
@@ -194,7 +252,7 @@ public class CborDecoder {
      * @throws IOException in case of I/O problems reading the CBOR-encoded value from the underlying output stream.
      */
     public int readInt16() throws IOException {
-        int ib = m_is.read();
+        int ib = read();
 
         // in case of negative integers, extends the sign to all bits; otherwise zero...
         long ui = expectIntegerType(ib);
@@ -209,7 +267,7 @@ public class CborDecoder {
      * @throws IOException in case of I/O problems reading the CBOR-encoded value from the underlying output stream.
      */
     public long readInt32() throws IOException {
-        int ib = m_is.read();
+        int ib = read();
 
         // in case of negative integers, extends the sign to all bits; otherwise zero...
         long ui = expectIntegerType(ib);
@@ -224,7 +282,7 @@ public class CborDecoder {
      * @throws IOException in case of I/O problems reading the CBOR-encoded value from the underlying output stream.
      */
     public long readInt64() throws IOException {
-        int ib = m_is.read();
+        int ib = read();
 
         // in case of negative integers, extends the sign to all bits; otherwise zero...
         long ui = expectIntegerType(ib);
@@ -239,7 +297,7 @@ public class CborDecoder {
      * @throws IOException in case of I/O problems reading the CBOR-encoded value from the underlying output stream.
      */
     public int readInt8() throws IOException {
-        int ib = m_is.read();
+        int ib = read();
 
         // in case of negative integers, extends the sign to all bits; otherwise zero...
         long ui = expectIntegerType(ib);
@@ -286,7 +344,7 @@ public class CborDecoder {
      * @throws IOException in case of I/O problems reading the CBOR-encoded value from the underlying output stream.
      */
     public int readSmallInt() throws IOException {
-        int ib = m_is.read();
+        int ib = read();
 
         // in case of negative integers, extends the sign to all bits; otherwise zero...
         long ui = expectIntegerType(ib);
@@ -311,14 +369,8 @@ public class CborDecoder {
      * @throws IOException in case of I/O problems reading the CBOR-encoded value from the underlying input stream.
      */
     public String readTextString(int maxLen) throws IOException {
-        long len = readMajorTypeWithSize(TYPE_TEXT_STRING);
-        if (len < 0)
-            fail("Infinite-length text strings not supported!");
-        if (len > Integer.MAX_VALUE)
-            fail("String length too long!");
-        if (len > maxLen)
-            fail("Invalid cbor: text string longer than original bytes!");
-        return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(readFully(new byte[(int) len]))).toString();
+        byte[] utf8 = readFully(new byte[readStringLength(TYPE_TEXT_STRING, maxLen)]);
+        return decodeUtf8(utf8, 0, utf8.length);
     }
 
     /**
@@ -342,6 +394,261 @@ public class CborDecoder {
         return null;
     }
 
+    /**
+     * Steps over the next complete value, including any nested items, without decoding it or allocating. Only the
+     * checks needed to stay well-formed are done: lengths and integers must be canonical and definite and fit in the
+     * remaining bytes, and the only simple values are <tt>false</tt>, <tt>true</tt>, <tt>null</tt> and doubles. Tags
+     * are stepped over together with their content.
+     *
+     * @throws IOException in case of I/O problems, or the value is truncated or not well-formed.
+     */
+    public void skipValue() throws IOException {
+        skip(null);
+    }
+
+    /**
+     * Steps over the next complete value like {@link #skipValue()}, collecting the targets of any merkle links in it
+     * in encoded order. Links get the same checks as {@link CborObject.CborMerkleLink} and any tag other than
+     * {@link CborObject#LINK_TAG} is rejected, but nothing else is decoded.
+     *
+     * @param links the list to add the links to, cannot be <code>null</code>.
+     * @throws IOException in case of I/O problems, or the value is truncated or not well-formed.
+     */
+    public void readLinks(List<? super Cid> links) throws IOException {
+        if (links == null) {
+            throw new IllegalArgumentException("Links cannot be null!");
+        }
+        skip(links);
+    }
+
+    private void skip(List<? super Cid> links) throws IOException {
+        long pending = 1;
+        while (pending > 0) {
+            pending--;
+            int ib = read();
+            if (ib < 0)
+                throw new EOFException();
+            int mt = ib >>> 5;
+            int ai = ib & 0x1f;
+            switch (mt) {
+                case TYPE_UNSIGNED_INTEGER:
+                case TYPE_NEGATIVE_INTEGER:
+                    readUInt(ai, false /* breakAllowed */, true);
+                    break;
+                case TYPE_BYTE_STRING:
+                case TYPE_TEXT_STRING:
+                    skipBytes(readUInt(ai, false /* breakAllowed */, false));
+                    break;
+                case TYPE_ARRAY:
+                case TYPE_MAP: {
+                    long n = readUInt(ai, false /* breakAllowed */, false);
+                    // every item takes at least one byte
+                    if (n > remainingBound())
+                        throw new EOFException();
+                    if (n > Integer.MAX_VALUE)
+                        throw new IllegalStateException("Invalid cbor: too many items: " + n);
+                    pending += mt == TYPE_MAP ? 2 * n : n;
+                    break;
+                }
+                case TYPE_TAG: {
+                    long tag = readUInt(ai, false /* breakAllowed */, false);
+                    if (links == null) {
+                        pending++;
+                        break;
+                    }
+                    checkLinkTag(tag);
+                    links.add(readLinkTarget((int) Math.min(remainingBound(), Integer.MAX_VALUE)));
+                    break;
+                }
+                default:
+                    if (ai == DOUBLE_PRECISION_FLOAT)
+                        skipBytes(8);
+                    else if (ai != FALSE && ai != TRUE && ai != NULL)
+                        throw new IllegalStateException("Unimplemented simple type! " + ai);
+            }
+            if (pending > remainingBound())
+                throw new EOFException();
+        }
+    }
+
+    /**
+     * Reads a double-precision float, which dag-cbor requires to be finite.
+     *
+     * @return the read double value.
+     * @throws IOException in case of I/O problems reading the CBOR-encoded value from the underlying input stream.
+     * @throws IllegalStateException in case the value is an infinity or NaN.
+     */
+    double readFiniteDouble() throws IOException {
+        double val = readDouble();
+        if (!Double.isFinite(val))
+            throw new IllegalStateException("dag-cbor only supports finite floats!");
+        return val;
+    }
+
+    /**
+     * Gives the value of an integer read by {@link #readInt()} if it does not fit in a long.
+     *
+     * @param majorType the major type of the integer, {@link CborConstants#TYPE_UNSIGNED_INTEGER} or {@link CborConstants#TYPE_NEGATIVE_INTEGER};
+     * @param readValue the value returned by {@link #readInt()}.
+     * @return the value as a {@link BigInteger}, or <code>null</code> if <tt>readValue</tt> is the value.
+     */
+    static BigInteger bigintValue(int majorType, long readValue) {
+        if (majorType == TYPE_UNSIGNED_INTEGER)
+            return readValue >= 0 ? null : CborObject.CborBigint.fromUnsigned(readValue);
+        return readValue < 0 ? null : CborObject.CborBigint.fromNegative(readValue);
+    }
+
+    /**
+     * Reads a merkle link: a tag {@link CborObject#LINK_TAG} followed by its target, see {@link #readLinkTarget(int)}.
+     *
+     * @param maxLen the maximum allowed length of the target.
+     * @return the target of the link.
+     * @throws IOException in case of I/O problems reading the CBOR-encoded value from the underlying input stream.
+     * @throws IllegalStateException in case of any other tag, or a target that is not allowed.
+     */
+    Cid readLink(int maxLen) throws IOException {
+        checkLinkTag(readTag());
+        return readLinkTarget(maxLen);
+    }
+
+    /**
+     * Checks that a tag is the only one dag-cbor allows, {@link CborObject#LINK_TAG}.
+     */
+    static void checkLinkTag(long tag) {
+        if (tag != CborObject.LINK_TAG)
+            throw new IllegalStateException("Unknown TAG in CBOR: " + tag);
+    }
+
+    /**
+     * Reads the target of a merkle link after its tag: a byte string holding a binary cid after a zero multibase
+     * prefix, or a text string. The cid gets the checks of {@link CborObject.CborMerkleLink#validate(Multihash)}.
+     *
+     * @param maxLen the maximum allowed length of the target.
+     * @return the target of the link.
+     * @throws IOException in case of I/O problems reading the CBOR-encoded value from the underlying input stream.
+     * @throws IllegalStateException in case the target is not allowed.
+     */
+    Cid readLinkTarget(int maxLen) throws IOException {
+        CborType type = peekType();
+        if (type == null)
+            throw new EOFException();
+        Cid target;
+        if (type.getMajorType() == TYPE_TEXT_STRING) {
+            target = Cid.decode(readTextString(maxLen));
+        } else if (type.getMajorType() == TYPE_BYTE_STRING) {
+            // only the cid is copied out of the source, without its multibase prefix
+            ByteBuffer bytes = readByteStringSlice(maxLen);
+            int len = bytes.remaining();
+            if (len == 0 || bytes.get(0) != 0) // multibase for binary
+                throw new IllegalStateException("Unknown Multibase decoding Merkle link: " + (len == 0 ? "none" : bytes.get(0)));
+            byte[] cid = new byte[len - 1];
+            bytes.get(1, cid);
+            target = Cid.cast(cid);
+        } else {
+            throw new IllegalStateException("Invalid type for merkle link: " + type);
+        }
+        CborObject.CborMerkleLink.validate(target);
+        return target;
+    }
+
+    /**
+     * Reads the header of a definite-length byte or text string.
+     *
+     * @param majorType the expected major type, either {@link CborConstants#TYPE_BYTE_STRING} or {@link CborConstants#TYPE_TEXT_STRING};
+     * @param maxLen the maximum allowed length.
+     * @return the length of the string in bytes, &gt;= 0.
+     * @throws IOException in case of I/O problems, or an indefinite or too large length.
+     */
+    protected int readStringLength(int majorType, int maxLen) throws IOException {
+        String name = majorType == TYPE_TEXT_STRING ? "text" : "byte";
+        long len = readMajorTypeWithSize(majorType);
+        if (len < 0)
+            fail("Infinite-length " + name + " strings not supported!");
+        if (len > Integer.MAX_VALUE)
+            fail("String length too long!");
+        if (len > maxLen)
+            fail("Invalid cbor: " + name + " string longer than original bytes!");
+        return (int) len;
+    }
+
+    /**
+     * Strictly decodes UTF-8 encoded bytes. ASCII is copied straight into the string; anything else is checked by
+     * {@link #utf16Length(byte[], int, int)} before being decoded.
+     *
+     * @return the decoded string.
+     * @throws CharacterCodingException in case the bytes are not valid UTF-8.
+     */
+    static String decodeUtf8(byte[] buf, int off, int len) throws CharacterCodingException {
+        if (asciiLength(buf, off, len) == len)
+            return new String(buf, off, len, StandardCharsets.ISO_8859_1);
+        utf16Length(buf, off, len);
+        return new String(buf, off, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of ASCII bytes before the first other byte in the given range.
+     */
+    static int asciiLength(byte[] buf, int off, int len) {
+        int end = off + len;
+        int i = off;
+        // a word at a time
+        while (i + 8 <= end && ((long) LONG.get(buf, i) & 0x8080808080808080L) == 0)
+            i += 8;
+        while (i < end && buf[i] >= 0)
+            i++;
+        return i - off;
+    }
+
+    /**
+     * Checks UTF-8 encoded bytes as strictly as {@link #decodeUtf8(byte[], int, int)}, without decoding them.
+     *
+     * @return the length of the decoded string in chars.
+     * @throws MalformedInputException in case the bytes are not valid UTF-8.
+     */
+    static int utf16Length(byte[] buf, int off, int len) throws MalformedInputException {
+        int end = off + len;
+        int i = off + asciiLength(buf, off, len);
+        int chars = i - off;
+        while (i < end) {
+            int b = buf[i];
+            if (b >= 0) {
+                i++;
+                chars++;
+                continue;
+            }
+            b &= 0xff;
+            int n, min = 0x80, max = 0xbf;
+            if (b >= 0xc2 && b <= 0xdf) {
+                n = 1;
+            } else if (b >= 0xe0 && b <= 0xef) {
+                n = 2;
+                if (b == 0xe0)
+                    min = 0xa0; // overlong
+                else if (b == 0xed)
+                    max = 0x9f; // surrogate
+            } else if (b >= 0xf0 && b <= 0xf4) {
+                n = 3;
+                if (b == 0xf0)
+                    min = 0x90; // overlong
+                else if (b == 0xf4)
+                    max = 0x8f; // above U+10FFFF
+            } else {
+                throw new MalformedInputException(1);
+            }
+            if (i + n >= end)
+                throw new MalformedInputException(end - i);
+            int b1 = buf[i + 1] & 0xff;
+            if (b1 < min || b1 > max)
+                throw new MalformedInputException(1);
+            for (int k = 2; k <= n; k++)
+                if ((buf[i + k] & 0xc0) != 0x80)
+                    throw new MalformedInputException(k);
+            i += n + 1;
+            chars += n == 3 ? 2 : 1;
+        }
+        return chars;
+    }
+
     protected long expectIntegerType(int ib) throws IOException {
         int majorType = ((ib & 0xFF) >>> 5);
         if ((majorType != TYPE_UNSIGNED_INTEGER) && (majorType != TYPE_NEGATIVE_INTEGER)) {
@@ -359,7 +666,7 @@ public class CborDecoder {
      * @throws IOException in case of I/O problems reading the CBOR-encoded value from the underlying input stream.
      */
     protected int readMajorType(int majorType) throws IOException {
-        int ib = m_is.read();
+        int ib = read();
         if (majorType != ((ib >>> 5) & 0x07)) {
             fail("Unexpected type: %s, expected: %s!", getName(ib), getName(majorType));
         }
@@ -420,6 +727,8 @@ public class CborDecoder {
                 throw new IllegalStateException("Non canonical cbor!");
         } else if (breakAllowed && length == BREAK) {
             return -1;
+        } else if (length > EIGHT_BYTES) {
+            fail("Not well-formed CBOR integer found, invalid length: %d!", length);
         }
         if (!allowBigint && result < 0) {
             fail("Not well-formed CBOR integer found, invalid length: %d!", result);
@@ -434,8 +743,7 @@ public class CborDecoder {
      * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
      */
     protected int readUInt16() throws IOException {
-        byte[] buf = readFully(new byte[2]);
-        return (buf[0] & 0xFF) << 8 | (buf[1] & 0xFF);
+        return readByte() << 8 | readByte();
     }
 
     /**
@@ -445,8 +753,7 @@ public class CborDecoder {
      * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
      */
     protected long readUInt32() throws IOException {
-        byte[] buf = readFully(new byte[4]);
-        return ((buf[0] & 0xFF) << 24 | (buf[1] & 0xFF) << 16 | (buf[2] & 0xFF) << 8 | (buf[3] & 0xFF)) & 0xffffffffL;
+        return (long) readUInt16() << 16 | readUInt16();
     }
 
     /**
@@ -456,9 +763,7 @@ public class CborDecoder {
      * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
      */
     protected long readUInt64() throws IOException {
-        byte[] buf = readFully(new byte[8]);
-        return (buf[0] & 0xFFL) << 56 | (buf[1] & 0xFFL) << 48 | (buf[2] & 0xFFL) << 40 | (buf[3] & 0xFFL) << 32 | //
-                (buf[4] & 0xFFL) << 24 | (buf[5] & 0xFFL) << 16 | (buf[6] & 0xFFL) << 8 | (buf[7] & 0xFFL);
+        return readUInt32() << 32 | readUInt32();
     }
 
     /**
@@ -468,7 +773,7 @@ public class CborDecoder {
      * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
      */
     protected int readUInt8() throws IOException {
-        return m_is.read() & 0xff;
+        return read() & 0xff;
     }
 
     /**
@@ -486,7 +791,38 @@ public class CborDecoder {
         return readUInt(length, false /* breakAllowed */, false);
     }
 
-    private byte[] readFully(byte[] buf) throws IOException {
+    /**
+     * Reads the next raw byte of CBOR-encoded data.
+     *
+     * @return the read byte as an unsigned value, or <tt>-1</tt> in case of an end-of-stream.
+     * @throws IOException in case of I/O problems reading from the underlying input stream.
+     */
+    protected int read() throws IOException {
+        return m_is.read();
+    }
+
+    /**
+     * Reads the next raw byte of CBOR-encoded data, which must be there.
+     *
+     * @return the read byte as an unsigned value.
+     * @throws IOException in case of I/O problems reading from the underlying input stream, or a premature end-of-stream.
+     */
+    private int readByte() throws IOException {
+        int b = read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    /**
+     * Reads exactly <tt>buf.length</tt> bytes of CBOR-encoded data into the given buffer.
+     *
+     * @param buf the buffer to fill, cannot be <code>null</code>.
+     * @return the given buffer.
+     * @throws IOException in case of I/O problems reading from the underlying input stream, or a premature end-of-stream.
+     */
+    protected byte[] readFully(byte[] buf) throws IOException {
         int len = buf.length;
         int n = 0, off = 0;
         while (n < len) {
@@ -498,4 +834,22 @@ public class CborDecoder {
         }
         return buf;
     }
+
+    /**
+     * @return an upper bound on the number of bytes left to decode, used to reject impossible lengths before reading
+     * on, or {@link Long#MAX_VALUE} if it is not known.
+     */
+    protected long remainingBound() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Skips the given number of bytes of CBOR-encoded data.
+     *
+     * @param len the number of bytes to skip, &gt;= 0.
+     * @throws IOException in case of I/O problems reading from the underlying input stream, or a premature end-of-stream.
+     */
+    protected void skipBytes(long len) throws IOException {
+        m_is.skipNBytes(len);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,306 @@
+package org.peergos.cbor;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.util.*;
+
+import static org.peergos.cbor.CborConstants.*;
+
+/**
+ * Builds {@link CborObject} trees without recursion. Open maps and arrays are kept on an explicit frame stack, so the
+ * nesting a block can have is limited by {@link #getMaxDepth()} rather than by the size of the thread stack.
+ * <p>
+ * The frame stack is kept between calls, so an instance can be reused to decode many blocks. Instances are not
+ * thread-safe; {@link CborObject#deserialize} reuses one per thread.
+ * </p>
+ */
+public final class CborDeserializer {
+    public static final int DEFAULT_MAX_DEPTH = 1024;
+
+    private static final ThreadLocal<CborDeserializer> SHARED = ThreadLocal.withInitial(CborDeserializer::new);
+
+    private final int m_maxDepth;
+
+    // one frame per open map or array: its keys (maps only), its values, and the index of the next value
+    private CborObject.CborString[][] m_keys = new CborObject.CborString[8][];
+    private CborObject[][] m_values = new CborObject[8][];
+    private int[] m_index = new int[8];
+    private int m_depth;
+    private boolean m_active;
+
+    /**
+     * Creates a new {@link CborDeserializer} instance allowing {@link #DEFAULT_MAX_DEPTH} levels of nesting.
+     */
+    public CborDeserializer() {
+        this(DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * Creates a new {@link CborDeserializer} instance.
+     *
+     * @param maxDepth the maximum number of maps and arrays that may be open at once, &gt; 0.
+     */
+    public CborDeserializer(int maxDepth) {
+        if (maxDepth <= 0) {
+            throw new IllegalArgumentException("Invalid maximum depth!");
+        }
+        m_maxDepth = maxDepth;
+    }
+
+    /**
+     * @return the maximum number of maps and arrays that may be open at once.
+     */
+    public int getMaxDepth() {
+        return m_maxDepth;
+    }
+
+    /**
+     * @return this thread's instance allowing {@link #DEFAULT_MAX_DEPTH} levels of nesting, or a new one if that is
+     * already decoding further up the stack.
+     */
+    static CborDeserializer shared() {
+        CborDeserializer res = SHARED.get();
+        return res.m_active ? new CborDeserializer() : res;
+    }
+
+    /**
+     * Decodes a whole block, which must hold a single value and nothing else.
+     *
+     * @param cbor the CBOR-encoded data, cannot be <code>null</code>.
+     * @return the decoded object.
+     */
+    public CborObject fromByteArray(byte[] cbor) {
+        CborBufferDecoder decoder = new CborBufferDecoder(cbor);
+        CborObject res = deserialize(decoder, cbor.length);
+        if (decoder.remaining() > 0)
+            throw new IllegalStateException("Extra bytes in cbor!");
+        return res;
+    }
+
+    /**
+     * Decodes the next value from the given decoder, honouring its lazy map and key cache settings.
+     *
+     * @param decoder the decoder to read from, cannot be <code>null</code>;
+     * @param maxGroupSize an upper bound on the encoded size of the value, used to reject impossible lengths.
+     * @return the decoded object.
+     */
+    public CborObject deserialize(CborDecoder decoder, int maxGroupSize) {
+        if (m_active)
+            throw new IllegalStateException("CborDeserializer is already decoding!");
+        m_active = true;
+        m_depth = 0;
+        boolean lazy = decoder instanceof CborBufferDecoder && ((CborBufferDecoder) decoder).isLazyMaps();
+        try {
+            while (true) {
+                if (m_depth > 0 && m_keys[m_depth - 1] != null)
+                    readNextKey(decoder, maxGroupSize);
+
+                CborObject value;
+                CborType type = decoder.peekType();
+                if (type == null)
+                    throw new EOFException();
+                switch (type.getMajorType()) {
+                    case TYPE_MAP: {
+                        long nValues = decoder.readMapLength();
+                        if (nValues > maxGroupSize)
+                            throw new IllegalStateException("Invalid cbor: more map elements than original bytes!");
+                        if (nValues < 0)
+                            throw new IllegalStateException("Invalid cbor: negative map element count!");
+                        if (nValues == 0 || lazy) {
+                            value = CborObject.CborMap.readLazy(decoder, (int) nValues, maxGroupSize);
+                            break;
+                        }
+                        push(new CborObject.CborString[(int) nValues], (int) nValues);
+                        continue;
+                    }
+                    case TYPE_ARRAY: {
+                        long nItems = decoder.readArrayLength();
+                        if (nItems > maxGroupSize)
+                            throw new IllegalStateException("Invalid cbor: more array elements than original bytes!");
+                        if (nItems < 0)
+                            throw new IllegalStateException("Invalid cbor: negative array element count!");
+                        if (nItems == 0) {
+                            value = CborObject.CborList.EMPTY;
+                            break;
+                        }
+                        value = readPacked(decoder, (int) nItems);
+                        if (value == null)
+                            continue;
+                        break;
+                    }
+                    default:
+                        value = readScalar(decoder, type, maxGroupSize);
+                }
+
+                // add the value to its parent, closing every frame it completes
+                while (m_depth > 0) {
+                    int top = m_depth - 1;
+                    CborObject[] values = m_values[top];
+                    int i = m_index[top];
+                    values[i++] = value;
+                    if (i < values.length) {
+                        m_index[top] = i;
+                        break;
+                    }
+                    CborObject.CborString[] keys = m_keys[top];
+                    value = keys != null ? new CborObject.CborMap(keys, values)
+                            : new CborObject.CborList(new ArrayList<>(Arrays.asList(values)));
+                    m_keys[top] = null;
+                    m_values[top] = null;
+                    m_depth--;
+                }
+                if (m_depth == 0)
+                    return value;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            m_active = false;
+            if (m_depth > 0) {
+                // drop references to a partly built tree
+                Arrays.fill(m_keys, 0, m_depth, null);
+                Arrays.fill(m_values, 0, m_depth, null);
+                m_depth = 0;
+            }
+        }
+    }
+
+    /**
+     * Reads an array of integers into a long[], or of doubles into a double[]. Once an item of another type turns up,
+     * the array gets a frame like any other, holding the items read so far.
+     *
+     * @return the packed list; or else the item that did not fit, which belongs in the new frame; or else
+     * <code>null</code> if the next item is still to be read.
+     */
+    private CborObject readPacked(CborDecoder decoder, int size) throws IOException {
+        if (m_depth == m_maxDepth)
+            throw new IllegalStateException("Invalid cbor: nested deeper than " + m_maxDepth + " levels!");
+        CborType type = decoder.peekType();
+        if (type == null)
+            throw new EOFException();
+        int mt = type.getMajorType();
+        if (mt == TYPE_FLOAT_SIMPLE && type.getAdditionalInfo() == DOUBLE_PRECISION_FLOAT) {
+            double[] items = new double[size];
+            for (int i = 0; i < size; i++) {
+                CborType t = decoder.peekType();
+                if (t == null)
+                    throw new EOFException();
+                if (t.getMajorType() != TYPE_FLOAT_SIMPLE || t.getAdditionalInfo() != DOUBLE_PRECISION_FLOAT) {
+                    push(null, size);
+                    for (int j = 0; j < i; j++)
+                        m_values[m_depth - 1][j] = new CborObject.CborDouble(items[j]);
+                    m_index[m_depth - 1] = i;
+                    return null;
+                }
+                items[i] = decoder.readFiniteDouble();
+            }
+            return CborObject.CborList.packed(items);
+        }
+        if (mt == TYPE_UNSIGNED_INTEGER || mt == TYPE_NEGATIVE_INTEGER) {
+            long[] items = new long[size];
+            for (int i = 0; i < size; i++) {
+                CborType t = decoder.peekType();
+                if (t == null)
+                    throw new EOFException();
+                mt = t.getMajorType();
+                CborObject other = null;
+                if (mt == TYPE_UNSIGNED_INTEGER || mt == TYPE_NEGATIVE_INTEGER) {
+                    long val = decoder.readInt();
+                    BigInteger big = CborDecoder.bigintValue(mt, val);
+                    if (big == null) {
+                        items[i] = val;
+                        continue;
+                    }
+                    other = new CborObject.CborBigint(big);
+                }
+                push(null, size);
+                for (int j = 0; j < i; j++)
+                    m_values[m_depth - 1][j] = CborObject.CborLong.of(items[j]);
+                m_index[m_depth - 1] = i;
+                return other;
+            }
+            return CborObject.CborList.packed(items);
+        }
+        push(null, size);
+        return null;
+    }
+
+    private void push(CborObject.CborString[] keys, int size) {
+        if (m_depth == m_maxDepth)
+            throw new IllegalStateException("Invalid cbor: nested deeper than " + m_maxDepth + " levels!");
+        if (m_depth == m_index.length) {
+            int capacity = m_depth * 2;
+            m_keys = Arrays.copyOf(m_keys, capacity);
+            m_values = Arrays.copyOf(m_values, capacity);
+            m_index = Arrays.copyOf(m_index, capacity);
+        }
+        m_keys[m_depth] = keys;
+        m_values[m_depth] = new CborObject[size];
+        m_index[m_depth] = 0;
+        m_depth++;
+    }
+
+    private void readNextKey(CborDecoder decoder, int maxGroupSize) throws IOException {
+        int top = m_depth - 1;
+        CborObject.CborString[] keys = m_keys[top];
+        int i = m_index[top];
+        CborObject.CborString key = readKey(decoder, maxGroupSize);
+        if (i > 0) {
+            int cmp = key.compareTo(keys[i - 1]);
+            if (cmp < 0)
+                throw new IllegalStateException("Unsorted cbor map keys!");
+            if (cmp == 0)
+                throw new IllegalStateException("Invalid cbor map: duplicate key!");
+        }
+        keys[i] = key;
+    }
+
+    static CborObject.CborString readKey(CborDecoder decoder, int maxGroupSize) throws IOException {
+        CborType type = decoder.peekType();
+        if (type == null)
+            throw new EOFException();
+        if (type.getMajorType() != TYPE_TEXT_STRING)
+            throw new IllegalStateException("Invalid cbor map: non string key!");
+        CborKeyCache keys = decoder.getKeyCache();
+        if (keys != null)
+            return keys.read(decoder, maxGroupSize);
+        return new CborObject.CborString(decoder.readTextString(maxGroupSize));
+    }
+
+    private static CborObject readScalar(CborDecoder decoder, CborType type, int maxGroupSize) throws IOException {
+        switch (type.getMajorType()) {
+            case TYPE_TEXT_STRING:
+                return CborObject.CborString.of(decoder.readTextString(maxGroupSize));
+            case TYPE_BYTE_STRING:
+                if (decoder.isSliceByteStrings())
+                    return new CborObject.CborByteSlice(decoder.readByteStringSlice(maxGroupSize));
+                return new CborObject.CborByteArray(decoder.readByteString(maxGroupSize));
+            case TYPE_UNSIGNED_INTEGER:
+            case TYPE_NEGATIVE_INTEGER: {
+                long longVal = decoder.readInt();
+                BigInteger big = CborDecoder.bigintValue(type.getMajorType(), longVal);
+                return big == null ? CborObject.CborLong.of(longVal) : new CborObject.CborBigint(big);
+            }
+            case TYPE_FLOAT_SIMPLE:
+                if (type.getAdditionalInfo() == NULL) {
+                    decoder.readNull();
+                    return CborObject.CborNull.NULL;
+                }
+                if (type.getAdditionalInfo() == TRUE) {
+                    decoder.readBoolean();
+                    return CborObject.CborBoolean.TRUE;
+                }
+                if (type.getAdditionalInfo() == FALSE) {
+                    decoder.readBoolean();
+                    return CborObject.CborBoolean.FALSE;
+                }
+                if (type.getAdditionalInfo() == DOUBLE_PRECISION_FLOAT)
+                    return new CborObject.CborDouble(decoder.readFiniteDouble());
+                throw new IllegalStateException("Unimplemented simple type! " + type.getAdditionalInfo());
+            case TYPE_TAG:
+                return new CborObject.CborMerkleLink(decoder.readLink(maxGroupSize));
+            default:
+                throw new IllegalStateException("Unimplemented cbor type: " + type);
+        }
+    }
+}
@@ -9,6 +9,8 @@ package org.peergos.cbor;
  */
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import static org.peergos.cbor.CborConstants.*;
 
@@ -32,6 +34,60 @@ public class CborEncoder {
         m_os = os;
     }
 
+    /**
+     * Creates a new {@link CborEncoder} instance for subclasses that do not write to an {@link OutputStream}. Such
+     * subclasses must override {@link #write(int)} and {@link #write(byte[], int, int)}.
+     */
+    protected CborEncoder() {
+        m_os = null;
+    }
+
+    /**
+     * Determines how many bytes {@link #writeUInt(int, long)} uses to encode a given value, including the initial byte.
+     *
+     * @param value the value (or length) to encode, &gt;= 0.
+     * @return the encoded size in bytes: 1, 2, 3, 5 or 9.
+     */
+    public static int headerSize(long value) {
+        if (value < 0x18L) {
+            return 1;
+        } else if (value < 0x100L) {
+            return 2;
+        } else if (value < 0x10000L) {
+            return 3;
+        } else if (value < 0x100000000L) {
+            return 5;
+        }
+        return 9;
+    }
+
+    /**
+     * Determines the length of a string encoded as UTF-8 the way {@link #writeTextString(String)} does, where unpaired
+     * surrogates become a single replacement byte.
+     *
+     * @param value the string to measure, cannot be <code>null</code>.
+     * @return the number of bytes in the UTF-8 encoding.
+     */
+    static int utf8Length(String value) {
+        int len = value.length();
+        int size = len;
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80)
+                continue;
+            if (c < 0x800) {
+                size++;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // a 4 byte sequence for the pair
+                size += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                size += 2;
+            }
+        }
+        return size;
+    }
+
     /**
      * Interprets a given float-value as a half-precision float value and
      * converts it to its raw integer form, as defined in IEEE 754.
@@ -131,6 +187,17 @@ public class CborEncoder {
         writeString(TYPE_BYTE_STRING, bytes);
     }
 
+    /**
+     * Writes a byte string in canonical CBOR-format.
+     *
+     * @param bytes the byte string to write, its remaining bytes are written without changing its position, cannot be <code>null</code>.
+     * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
+     */
+    public void writeByteString(ByteBuffer bytes) throws IOException {
+        writeType(TYPE_BYTE_STRING, bytes.remaining());
+        write(bytes);
+    }
+
     /**
      * Writes the start of an indefinite-length byte string.
      * <p>
@@ -316,7 +383,7 @@ public class CborEncoder {
         // complement negative value...
         value = Math.min(0x17, (sign ^ value));
 
-        m_os.write((int) (mt | value));
+        write((int) (mt | value));
     }
 
     /**
@@ -344,7 +411,7 @@ public class CborEncoder {
      * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
      */
     public void writeTextString(String value) throws IOException {
-        writeString(TYPE_TEXT_STRING, value == null ? null : value.getBytes("UTF-8"));
+        writeString(TYPE_TEXT_STRING, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
     }
 
     /**
@@ -377,7 +444,48 @@ public class CborEncoder {
      * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
      */
     protected void writeSimpleType(int majorType, int value) throws IOException {
-        m_os.write((majorType << 5) | (value & 0x1f));
+        write((majorType << 5) | (value & 0x1f));
+    }
+
+    /**
+     * Writes a single raw byte of CBOR-encoded data.
+     *
+     * @param b the byte to write, only the lower 8 bits are used.
+     * @throws IOException in case of I/O problems writing to the underlying output stream.
+     */
+    protected void write(int b) throws IOException {
+        m_os.write(b);
+    }
+
+    /**
+     * Writes a range of raw bytes of CBOR-encoded data.
+     *
+     * @param b the bytes to write;
+     * @param off the index of the first byte to write;
+     * @param len the number of bytes to write.
+     * @throws IOException in case of I/O problems writing to the underlying output stream.
+     */
+    protected void write(byte[] b, int off, int len) throws IOException {
+        m_os.write(b, off, len);
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer as raw CBOR-encoded data, without changing its position.
+     *
+     * @param b the bytes to write, cannot be <code>null</code>.
+     * @throws IOException in case of I/O problems writing to the underlying output stream.
+     */
+    protected void write(ByteBuffer b) throws IOException {
+        if (b.hasArray()) {
+            write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+            return;
+        }
+        byte[] chunk = new byte[Math.min(b.remaining(), 8192)];
+        for (int pos = b.position(); pos < b.limit(); pos += chunk.length) {
+            int len = Math.min(chunk.length, b.limit() - pos);
+            b.get(pos, chunk, 0, len);
+            write(chunk, 0, len);
+        }
     }
 
     /**
@@ -391,7 +499,7 @@ public class CborEncoder {
         int len = (bytes == null) ? 0 : bytes.length;
         writeType(majorType, len);
         if (len > 0){
-            m_os.write(bytes);
+            write(bytes, 0, len);
         }
     }
 
@@ -415,7 +523,7 @@ public class CborEncoder {
      */
     protected void writeUInt(int mt, long value) throws IOException {
         if (value < 0x18L) {
-            m_os.write((int) (mt | value));
+            write((int) (mt | value));
         } else if (value < 0x100L) {
             writeUInt8(mt, (int) value);
         } else if (value < 0x10000L) {
@@ -435,9 +543,9 @@ public class CborEncoder {
      * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
      */
     protected void writeUInt16(int mt, int value) throws IOException {
-        m_os.write(mt | TWO_BYTES);
-        m_os.write(value >> 8);
-        m_os.write(value & 0xFF);
+        write(mt | TWO_BYTES);
+        write(value >> 8);
+        write(value & 0xFF);
     }
 
     /**
@@ -448,11 +556,11 @@ public class CborEncoder {
      * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
      */
     protected void writeUInt32(int mt, int value) throws IOException {
-        m_os.write(mt | FOUR_BYTES);
-        m_os.write(value >> 24);
-        m_os.write(value >> 16);
-        m_os.write(value >> 8);
-        m_os.write(value & 0xFF);
+        write(mt | FOUR_BYTES);
+        write(value >> 24);
+        write(value >> 16);
+        write(value >> 8);
+        write(value & 0xFF);
     }
 
     /**
@@ -463,15 +571,15 @@ public class CborEncoder {
      * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
      */
     protected void writeUInt64(int mt, long value) throws IOException {
-        m_os.write(mt | EIGHT_BYTES);
-        m_os.write((int) (value >> 56));
-        m_os.write((int) (value >> 48));
-        m_os.write((int) (value >> 40));
-        m_os.write((int) (value >> 32));
-        m_os.write((int) (value >> 24));
-        m_os.write((int) (value >> 16));
-        m_os.write((int) (value >> 8));
-        m_os.write((int) (value & 0xFF));
+        write(mt | EIGHT_BYTES);
+        write((int) (value >> 56));
+        write((int) (value >> 48));
+        write((int) (value >> 40));
+        write((int) (value >> 32));
+        write((int) (value >> 24));
+        write((int) (value >> 16));
+        write((int) (value >> 8));
+        write((int) (value & 0xFF));
     }
 
     /**
@@ -482,7 +590,7 @@ public class CborEncoder {
      * @throws IOException in case of I/O problems writing the CBOR-encoded value to the underlying output stream.
      */
     protected void writeUInt8(int mt, int value) throws IOException {
-        m_os.write(mt | ONE_BYTE);
-        m_os.write(value & 0xFF);
+        write(mt | ONE_BYTE);
+        write(value & 0xFF);
     }
 }
\ No newline at end of file
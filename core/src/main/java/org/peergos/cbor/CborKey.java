@@ -0,0 +1,13 @@
+package org.peergos.cbor;
+
+import java.lang.annotation.*;
+
+/**
+ * Sets the map key of a record component, which otherwise is the name of the component.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.RECORD_COMPONENT, ElementType.FIELD})
+public @interface CborKey {
+    String value();
+}
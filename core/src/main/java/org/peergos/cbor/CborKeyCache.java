@@ -0,0 +1,90 @@
+package org.peergos.cbor;
+
+import java.io.*;
+import java.util.Arrays;
+
+import static org.peergos.cbor.CborConstants.*;
+
+/**
+ * A bounded intern table for map keys, which repeat across blocks. A key whose encoded bytes are already in the
+ * table is returned as the cached {@link CborObject.CborString}, without decoding its UTF-8. Install it on a decoder
+ * with {@link CborDecoder#setKeyCache(CborKeyCache)}.
+ * <p>
+ * The table is direct mapped: each key hashes to a single slot and replaces whatever was there. Slots hold immutable
+ * entries, so the table can be shared between threads without locking; a race at worst loses an insertion.
+ * </p>
+ */
+public final class CborKeyCache {
+    private static final class Entry {
+        private final byte[] encoded;
+        private final CborObject.CborString key;
+
+        private Entry(byte[] encoded, CborObject.CborString key) {
+            this.encoded = encoded;
+            this.key = key;
+        }
+    }
+
+    private final Entry[] m_entries;
+    private final int m_maxKeyLength;
+
+    /**
+     * Creates a table with 4096 slots for keys of up to 64 bytes.
+     */
+    public CborKeyCache() {
+        this(4096, 64);
+    }
+
+    /**
+     * Creates a new {@link CborKeyCache} instance.
+     *
+     * @param slots the number of keys to hold, rounded up to a power of two;
+     * @param maxKeyLength the longest encoded key to cache, longer keys are always decoded.
+     */
+    public CborKeyCache(int slots, int maxKeyLength) {
+        if (slots <= 0 || slots > 1 << 30) {
+            throw new IllegalArgumentException("Invalid number of slots!");
+        }
+        m_entries = new Entry[slots == 1 ? 1 : Integer.highestOneBit(slots - 1) << 1];
+        m_maxKeyLength = maxKeyLength;
+    }
+
+    /**
+     * Reads a text string, returning the cached instance if its encoded bytes are in the table.
+     *
+     * @param decoder the decoder to read from, positioned at a text string;
+     * @param maxLen the maximum allowed length.
+     * @return the key, never <code>null</code>.
+     * @throws IOException in case of I/O problems, a bad length or invalid UTF-8.
+     */
+    CborObject.CborString read(CborDecoder decoder, int maxLen) throws IOException {
+        int len = decoder.readStringLength(TYPE_TEXT_STRING, maxLen);
+        boolean shared = decoder instanceof CborBufferDecoder;
+        byte[] buf;
+        int start;
+        if (shared) {
+            CborBufferDecoder b = (CborBufferDecoder) decoder;
+            start = b.advance(len);
+            buf = b.m_buf;
+        } else {
+            buf = decoder.readFully(new byte[len]);
+            start = 0;
+        }
+        if (len > m_maxKeyLength)
+            return new CborObject.CborString(CborDecoder.decodeUtf8(buf, start, len));
+
+        int hash = 1;
+        for (int i = start; i < start + len; i++)
+            hash = 31 * hash + buf[i];
+        int slot = (hash ^ (hash >>> 16)) & (m_entries.length - 1);
+        Entry e = m_entries[slot];
+        if (e != null && Arrays.equals(e.encoded, 0, e.encoded.length, buf, start, start + len))
+            return e.key;
+
+        CborObject.CborString key = new CborObject.CborString(CborDecoder.decodeUtf8(buf, start, len));
+        // never keep a reference to the caller's buffer
+        byte[] encoded = shared ? Arrays.copyOfRange(buf, start, start + len) : buf;
+        m_entries[slot] = new Entry(encoded, key);
+        return key;
+    }
+}
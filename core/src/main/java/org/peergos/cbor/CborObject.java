@@ -0,0 +1,1566 @@
+package org.peergos.cbor;
+
+import io.ipfs.cid.*;
+import io.ipfs.multihash.*;
+
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+import static org.peergos.cbor.CborConstants.*;
+import static org.peergos.cbor.CborEncoder.NEG_INT_MASK;
+
+public interface CborObject extends Cborable {
+
+    void serialize(CborEncoder encoder);
+
+    List<Multihash> links();
+
+    /** The exact number of bytes {@link #serialize(CborEncoder)} writes. The built-in types compute it without
+     * encoding; other implementations are serialized into an encoder that only counts bytes, unless they override it.
+     */
+    default long encodedSize() {
+        long[] size = {0};
+        serialize(new CborEncoder(new OutputStream() {
+            @Override
+            public void write(int b) {
+                size[0]++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                size[0] += len;
+            }
+        }));
+        return size[0];
+    }
+
+    /** Appends the links in this object to the given list, in the order they are encoded.
+     */
+    default void collectLinks(List<? super Multihash> res) {
+        res.addAll(links());
+    }
+
+    /** Finds the links in a block by scanning its encoded bytes, without decoding anything else.
+     */
+    static List<Cid> getLinks(Cid h, byte[] data) {
+        if (h.codec == Cid.Codec.Raw)
+            return Collections.emptyList();
+        try {
+            CborBufferDecoder decoder = new CborBufferDecoder(data);
+            List<Cid> res = new ArrayList<>();
+            decoder.readLinks(res);
+            if (decoder.remaining() > 0)
+                throw new IllegalStateException("Extra bytes in cbor!");
+            return res;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Serializes into a single array. The built-in types size it exactly up front, so it is the encoder's buffer and
+     * is never copied; other implementations are written into a growable buffer, as counting their size would mean
+     * encoding them twice.
+     */
+    default byte[] toByteArray() {
+        CborBufferEncoder encoder = hasComputedSize(this) ? new CborBufferEncoder(Math.toIntExact(encodedSize()))
+                : new CborBufferEncoder();
+        serialize(encoder);
+        return encoder.toByteArray();
+    }
+
+    /** Whether {@link #encodedSize()} is computed without encoding, as it is for the types nested in this interface.
+     */
+    private static boolean hasComputedSize(CborObject obj) {
+        return obj instanceof CborMap || obj instanceof CborList || obj instanceof CborString || obj instanceof CborLong
+                || obj instanceof CborMerkleLink || obj instanceof CborByteArray || obj instanceof CborByteSlice
+                || obj instanceof CborBoolean || obj instanceof CborNull || obj instanceof CborDouble
+                || obj instanceof CborFloat || obj instanceof CborHalfFloat || obj instanceof CborBigint;
+    }
+
+    /** Serializes as a block with its v1 dag-cbor cid, hashing with sha2-256 as the bytes are written.
+     */
+    default CborBlock toBlock() {
+        return toBlock(Multihash.Type.sha2_256);
+    }
+
+    /** Serializes as a block with its v1 dag-cbor cid, hashing with the given type as the bytes are written. Links only
+     * allow sha2-256 and blake3; blake3 needs a security provider with a "BLAKE3-256" digest.
+     */
+    default CborBlock toBlock(Multihash.Type hashType) {
+        String algorithm = hashType == Multihash.Type.blake3 ? "BLAKE3-256" : "SHA-256";
+        try {
+            return toBlock(hashType, MessageDigest.getInstance(algorithm));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No " + algorithm + " digest available for " + hashType, e);
+        }
+    }
+
+    /** Serializes as a block with its v1 dag-cbor cid, feeding the bytes to the given digest as they are written
+     * rather than hashing the finished block. Links only allow sha2-256 and blake3, and the digest must compute the
+     * given hash type.
+     */
+    default CborBlock toBlock(Multihash.Type hashType, MessageDigest digest) {
+        if (hashType != Multihash.Type.sha2_256 && hashType != Multihash.Type.blake3)
+            throw new IllegalArgumentException("Unsupported hash type for dag-cbor block: " + hashType);
+        String algorithm = digest.getAlgorithm().toUpperCase(Locale.ROOT).replace("-", "");
+        boolean matches = hashType == Multihash.Type.sha2_256 ? algorithm.equals("SHA256") : algorithm.startsWith("BLAKE3");
+        int length = digest.getDigestLength(); // 0 if the provider does not say
+        if (!matches || (length != 0 && length != 32))
+            throw new IllegalArgumentException("Digest " + digest.getAlgorithm() + " does not compute " + hashType);
+        digest.reset();
+        CborBufferEncoder encoder = hasComputedSize(this) ? new CborBufferEncoder(Math.toIntExact(encodedSize()), digest)
+                : new CborBufferEncoder(digest);
+        serialize(encoder);
+        byte[] hash = encoder.digest();
+        return new CborBlock(new Cid(1, Cid.Codec.DagCbor, hashType, hash), encoder.toByteArray());
+    }
+
+    /** Serializes into a single exactly sized array, after checking the encoded size against a limit.
+     */
+    default byte[] toByteArray(int maxSize) {
+        long size = encodedSize();
+        if (size > maxSize)
+            throw new IllegalStateException("Cbor too large: " + size + " > " + maxSize + " bytes");
+        CborBufferEncoder encoder = new CborBufferEncoder((int) size);
+        serialize(encoder);
+        return encoder.toByteArray();
+    }
+
+    @Override
+    default CborObject toCbor() {
+        return this;
+    }
+
+    int LINK_TAG = 42;
+
+    static CborObject fromByteArray(byte[] cbor) {
+        return fromByteArray(cbor, 0, cbor.length);
+    }
+
+    /** Decodes with map keys interned in the given cache.
+     */
+    static CborObject fromByteArray(byte[] cbor, CborKeyCache keys) {
+        CborBufferDecoder decoder = new CborBufferDecoder(cbor);
+        decoder.setKeyCache(keys);
+        return deserializeAll(decoder);
+    }
+
+    /** Checks that a block is a single canonical dag-cbor value, without decoding it. Throws if it is not.
+     */
+    static void validate(byte[] cbor) {
+        try {
+            CborBufferDecoder decoder = new CborBufferDecoder(cbor);
+            decoder.validateValue();
+            if (decoder.remaining() > 0)
+                throw new IllegalStateException("Extra bytes in cbor!");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static CborObject fromByteArray(byte[] cbor, int offset, int length) {
+        return deserializeAll(new CborBufferDecoder(cbor, offset, length));
+    }
+
+    /** Decodes a block from a range of a buffer, e.g. a memory mapped file, reading it in place rather than copying it
+     * to the heap first. The offset is an absolute index and the buffer's position is not modified.
+     */
+    static CborObject fromByteBuffer(ByteBuffer buf, int offset, int length) {
+        if (buf.hasArray()) {
+            if (offset < 0 || length < 0 || offset > buf.limit() - length)
+                throw new IllegalArgumentException("Invalid buffer range!");
+            return fromByteArray(buf.array(), buf.arrayOffset() + offset, length);
+        }
+        CborByteBufferDecoder decoder = new CborByteBufferDecoder(buf, offset, length);
+        CborObject res = deserialize(decoder, length);
+        if (decoder.remaining() > 0)
+            throw new IllegalStateException("Extra bytes in cbor!");
+        return res;
+    }
+
+    /** Decodes maps lazily: keys are checked up front, but each value is only decoded when it is first accessed.
+     */
+    static CborObject fromByteArrayLazy(byte[] cbor) {
+        CborBufferDecoder decoder = new CborBufferDecoder(cbor);
+        decoder.setLazyMaps(true);
+        return deserializeAll(decoder);
+    }
+
+    /** Decodes byte strings as {@link CborByteSlice} values sharing the given array, which must not be modified
+     * while they are in use.
+     */
+    static CborObject fromByteArraySliced(byte[] cbor) {
+        CborBufferDecoder decoder = new CborBufferDecoder(cbor);
+        decoder.setSliceByteStrings(true);
+        return deserializeAll(decoder);
+    }
+
+    private static CborObject deserializeAll(CborBufferDecoder decoder) {
+        CborObject res = deserialize(decoder, decoder.remaining());
+        if (decoder.remaining() > 0)
+            throw new IllegalStateException("Extra bytes in cbor!");
+        return res;
+    }
+
+    static CborObject read(InputStream in, int maxBytes) {
+        return deserialize(new CborDecoder(in), maxBytes);
+    }
+
+    /** Decodes the next value, allowing up to {@link CborDeserializer#DEFAULT_MAX_DEPTH} levels of nesting. The frame
+     * stack is reused from call to call on each thread.
+     */
+    static CborObject deserialize(CborDecoder decoder, int maxGroupSize) {
+        return CborDeserializer.shared().deserialize(decoder, maxGroupSize);
+    }
+
+    final class CborMap implements CborObject {
+        private static final CborString[] NO_KEYS = new CborString[0];
+        private static final CborObject[] NO_VALUES = new CborObject[0];
+        private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(CborObject[].class);
+
+        // Only String keys should be used in IPLD dag-cbor maps, kept in canonical order with values in parallel
+        private CborString[] keys;
+        private CborObject[] values;
+        // Set for lazily decoded maps, where a null value is decoded from the source block on first access
+        private LazyValues lazy;
+        private volatile boolean frozen;
+
+        /** Wraps decoded keys, already checked to be in canonical order, and their values.
+         */
+        CborMap(CborString[] keys, CborObject[] values) {
+            this(keys, values, null);
+        }
+
+        private CborMap(CborString[] keys, CborObject[] values, LazyValues lazy) {
+            this.keys = keys;
+            this.values = values;
+            this.lazy = lazy;
+        }
+
+        /**
+         * The encoded range of each value of a lazily decoded map in its source block. Decoding values on first access
+         * is not synchronized, so racing readers may decode the same value twice, but each decoded value is stored
+         * with release semantics and read with acquire semantics, so no reader sees one that is partly constructed.
+         */
+        private static final class LazyValues {
+            private final int[] ranges;
+            private final byte[] source;
+            private final CborKeyCache keyCache;
+            private final boolean sliceByteStrings;
+
+            private LazyValues(int[] ranges, byte[] source, CborKeyCache keyCache, boolean sliceByteStrings) {
+                this.ranges = ranges;
+                this.source = source;
+                this.keyCache = keyCache;
+                this.sliceByteStrings = sliceByteStrings;
+            }
+
+            private CborObject decode(int index) {
+                int start = ranges[2 * index], end = ranges[2 * index + 1];
+                CborBufferDecoder decoder = new CborBufferDecoder(source, start, end - start);
+                decoder.setLazyMaps(true);
+                decoder.setKeyCache(keyCache);
+                decoder.setSliceByteStrings(sliceByteStrings);
+                return deserialize(decoder, end - start);
+            }
+        }
+
+        /** Reads an empty map, or a lazy one whose values are only located, after its header.
+         */
+        static CborMap readLazy(CborDecoder decoder, int nValues, int maxGroupSize) throws IOException {
+            if (nValues == 0)
+                return new CborMap(NO_KEYS, NO_VALUES, null);
+            CborBufferDecoder buffer = (CborBufferDecoder) decoder;
+            CborString[] keys = new CborString[nValues];
+            int[] ranges = new int[2 * nValues];
+            for (int i = 0; i < nValues; i++) {
+                CborString key = CborDeserializer.readKey(decoder, maxGroupSize);
+                if (i > 0) {
+                    int cmp = key.compareTo(keys[i - 1]);
+                    if (cmp < 0)
+                        throw new IllegalStateException("Unsorted cbor map keys!");
+                    if (cmp == 0)
+                        throw new IllegalStateException("Invalid cbor map: duplicate key!");
+                }
+                keys[i] = key;
+                ranges[2 * i] = buffer.position();
+                buffer.skipValue();
+                ranges[2 * i + 1] = buffer.position();
+            }
+            LazyValues lazy = new LazyValues(ranges, buffer.m_buf, decoder.getKeyCache(), decoder.isSliceByteStrings());
+            return new CborMap(keys, new CborObject[nValues], lazy);
+        }
+
+        private CborObject valueAt(int index) {
+            LazyValues l = lazy;
+            if (l == null)
+                return values[index];
+            CborObject[] vals = values;
+            CborObject val = (CborObject) VALUES.getAcquire(vals, index);
+            if (val == null) {
+                val = l.decode(index);
+                VALUES.setRelease(vals, index, val);
+            }
+            return val;
+        }
+
+        /**
+         * A reusable map key for repeated lookups, e.g. in a fromCbor method. It remembers where it was last found,
+         * so lookups in maps with the same layout take a single comparison.
+         */
+        public static final class Key {
+            public final String value;
+            // benign race: any stale index is checked before use
+            private int hint;
+
+            public Key(String value) {
+                this.value = value;
+            }
+
+            @Override
+            public String toString() {
+                return value;
+            }
+        }
+
+        private int indexOf(String key) {
+            CborString[] keys = this.keys;
+            int low = 0, high = keys.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = CborString.compare(keys[mid].value, key);
+                if (cmp < 0)
+                    low = mid + 1;
+                else if (cmp > 0)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+            return -(low + 1);
+        }
+
+        private int indexOf(Key key) {
+            CborString[] keys = this.keys;
+            int hint = key.hint;
+            if (hint < keys.length && keys[hint].value.equals(key.value))
+                return hint;
+            int index = indexOf(key.value);
+            if (index >= 0)
+                key.hint = index;
+            return index;
+        }
+
+        public int size() {
+            return keys.length;
+        }
+
+        public static CborMap build(Map<String, Cborable> values) {
+            int n = values.size();
+            CborString[] keys = new CborString[n];
+            CborObject[] vals = new CborObject[n];
+            int i = 0;
+            for (Map.Entry<String, Cborable> e : values.entrySet()) {
+                keys[i] = new CborString(e.getKey());
+                vals[i] = e.getValue().toCbor();
+                i++;
+            }
+            if (!(values instanceof SortedMap) || ((SortedMap<String, Cborable>) values).comparator() != CborString.ORDER)
+                sortByKey(keys, vals);
+            return n == 0 ? new CborMap(NO_KEYS, NO_VALUES, null) : new CborMap(keys, vals, null);
+        }
+
+        private static void sortByKey(CborString[] keys, CborObject[] values) {
+            Integer[] order = new Integer[keys.length];
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            Arrays.sort(order, (a, b) -> keys[a].compareTo(keys[b]));
+            CborString[] sortedKeys = keys.clone();
+            CborObject[] sortedValues = values.clone();
+            for (int i = 0; i < order.length; i++) {
+                keys[i] = sortedKeys[order[i]];
+                values[i] = sortedValues[order[i]];
+            }
+        }
+
+        /** Makes this map and everything in it read-only, so it can be shared: {@link #put} throws on a frozen map,
+         * and nested lists are replaced by unmodifiable copies.
+         */
+        public CborMap freeze() {
+            if (frozen)
+                return this;
+            for (int i = 0; i < keys.length; i++)
+                values[i] = frozen(valueAt(i));
+            lazy = null;
+            frozen = true;
+            return this;
+        }
+
+        /** Returns a read-only form of any decoded value, see {@link #freeze()}.
+         */
+        static CborObject frozen(CborObject value) {
+            if (value instanceof CborMap)
+                return ((CborMap) value).freeze();
+            if (value instanceof CborList) {
+                if (((CborList) value).isPacked())
+                    return value;
+                List<? extends Cborable> items = ((CborList) value).value;
+                if (items.isEmpty())
+                    return CborList.EMPTY;
+                Cborable[] res = new Cborable[items.size()];
+                for (int i = 0; i < res.length; i++) {
+                    Cborable item = items.get(i);
+                    res[i] = item instanceof CborObject ? frozen((CborObject) item) : item;
+                }
+                return new CborList(Collections.unmodifiableList(Arrays.asList(res)));
+            }
+            return value;
+        }
+
+        public boolean isFrozen() {
+            return frozen;
+        }
+
+        public void put(String key, CborObject val) {
+            if (frozen)
+                throw new IllegalStateException("Cannot modify a frozen map!");
+            if (lazy != null) {
+                for (int i = 0; i < keys.length; i++)
+                    valueAt(i);
+                lazy = null;
+            }
+            int index = indexOf(key);
+            if (index >= 0) {
+                values[index] = val;
+                return;
+            }
+            int insert = -index - 1;
+            CborString[] newKeys = new CborString[keys.length + 1];
+            CborObject[] newValues = new CborObject[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insert);
+            System.arraycopy(values, 0, newValues, 0, insert);
+            newKeys[insert] = new CborString(key);
+            newValues[insert] = val;
+            System.arraycopy(keys, insert, newKeys, insert + 1, keys.length - insert);
+            System.arraycopy(values, insert, newValues, insert + 1, keys.length - insert);
+            keys = newKeys;
+            values = newValues;
+        }
+
+        public boolean containsKey(String key) {
+            return indexOf(key) >= 0;
+        }
+
+        public boolean containsKey(Key key) {
+            return indexOf(key) >= 0;
+        }
+
+        /** A new modifiable set of the keys, iterating in canonical order. Changing it does not change the map.
+         */
+        public Set<String> keySet() {
+            Set<String> res = new LinkedHashSet<>((int) (keys.length / 0.75f) + 1);
+            for (CborString key : keys)
+                res.add(key.value);
+            return res;
+        }
+
+        public Cborable get(String key) {
+            int index = indexOf(key);
+            return index < 0 ? null : valueAt(index);
+        }
+
+        public Cborable get(Key key) {
+            int index = indexOf(key);
+            return index < 0 ? null : valueAt(index);
+        }
+
+        public String getString(Key key) {
+            return ((CborString) get(key)).value;
+        }
+
+        public long getLong(Key key) {
+            return ((CborLong) get(key)).value;
+        }
+
+        public boolean getBoolean(Key key) {
+            CborBoolean val = (CborBoolean) get(key);
+            return val != null && val.value;
+        }
+
+        public byte[] getByteArray(Key key) {
+            return byteArray(get(key));
+        }
+
+        private static byte[] byteArray(Cborable val) {
+            if (val instanceof CborByteSlice)
+                return ((CborByteSlice) val).bytes();
+            return ((CborByteArray) val).value;
+        }
+
+        public Multihash getMerkleLink(Key key) {
+            return ((CborMerkleLink) get(key)).target;
+        }
+
+        public <T> Optional<T> getOptional(Key key, Function<Cborable, T> fromCbor) {
+            return Optional.ofNullable(get(key)).map(fromCbor);
+        }
+
+        public <T> T getObject(String key, Function<Cborable, T> fromCbor) {
+            return fromCbor.apply(get(key));
+        }
+
+        public String getString(String key) {
+            return ((CborString) get(key)).value;
+        }
+
+        public String getString(String key, String defaultValue) {
+            Cborable val = get(key);
+            return val != null ? ((CborString) val).value : defaultValue;
+        }
+
+        public long getLong(String key) {
+            return ((CborLong) get(key)).value;
+        }
+
+        public Multihash getMerkleLink(String key) {
+            return ((CborMerkleLink) get(key)).target;
+        }
+
+        public boolean getBoolean(String key) {
+            CborBoolean val = (CborBoolean) get(key);
+            return val != null && val.value;
+        }
+
+        public boolean getBoolean(String key, boolean def) {
+            Cborable val = get(key);
+            if (val == null)
+                return def;
+            return ((CborBoolean) val).value;
+        }
+
+        public Optional<byte[]> getOptionalByteArray(String key) {
+            return Optional.ofNullable(get(key)).map(CborMap::byteArray);
+        }
+
+        public byte[] getByteArray(String key) {
+            return byteArray(get(key));
+        }
+
+        public Optional<Cborable> getOptional(String key) {
+            return Optional.ofNullable(get(key));
+        }
+
+        public <T> Optional<T> getOptional(String key, Function<Cborable, T> fromCbor) {
+            return Optional.ofNullable(get(key)).map(fromCbor);
+        }
+
+        public Optional<Long> getOptionalLong(String key) {
+            return Optional.ofNullable((CborLong) get(key)).map(c -> c.value);
+        }
+
+        public Optional<String> getOptionalString(String key) {
+            return Optional.ofNullable((CborString) get(key)).map(c -> c.value);
+        }
+
+        public <T> List<T> getList(String key, Function<Cborable, T> fromCbor) {
+            CborList cborList = (CborList) get(key);
+            if (cborList == null)
+                return Collections.emptyList();
+            return cborList.value
+                    .stream()
+                    .map(fromCbor)
+                    .collect(Collectors.toList());
+        }
+
+        public void applyToAll(BiConsumer<String, Cborable> func) {
+            for (int i = 0; i < keys.length; i++)
+                func.accept(keys[i].value, valueAt(i));
+        }
+
+        @Override
+        public void serialize(CborEncoder encoder) {
+            try {
+                encoder.writeMapStart(keys.length);
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i].serialize(encoder);
+                    valueAt(i).serialize(encoder);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public long encodedSize() {
+            long size = CborEncoder.headerSize(keys.length);
+            for (int i = 0; i < keys.length; i++)
+                size += keys[i].encodedSize() + valueAt(i).encodedSize();
+            return size;
+        }
+
+        @Override
+        public List<Multihash> links() {
+            List<Multihash> res = new ArrayList<>();
+            collectLinks(res);
+            return res;
+        }
+
+        @Override
+        public void collectLinks(List<? super Multihash> res) {
+            for (int i = 0; i < keys.length; i++)
+                valueAt(i).collectLinks(res);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            CborMap cborMap = (CborMap) o;
+
+            if (!Arrays.equals(keys, cborMap.keys))
+                return false;
+            for (int i = 0; i < keys.length; i++)
+                if (!Objects.equals(valueAt(i), cborMap.valueAt(i)))
+                    return false;
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            // the same as the equivalent java.util.Map
+            int h = 0;
+            for (int i = 0; i < keys.length; i++)
+                h += keys[i].hashCode() ^ Objects.hashCode(valueAt(i));
+            return h;
+        }
+
+        public CborList getList(String key) {
+            return (CborList) get(key);
+        }
+
+        public <T> T get(String key, Function<? super Cborable, T> fromCbor) {
+            return fromCbor.apply(get(key));
+        }
+
+        public <K,V> Map<K,V> toMap(Function<? super Cborable, K> toKey, Function<? super Cborable, V> toValue) {
+            Map<K, V> res = new HashMap<>();
+            for (int i = 0; i < keys.length; i++)
+                if (res.put(toKey.apply(keys[i]), toValue.apply(valueAt(i))) != null)
+                    throw new IllegalStateException("Duplicate key " + toKey.apply(keys[i]));
+            return res;
+        }
+
+        public <K,V> Map<K,V> getMap(String key, Function<? super Cborable, K> toKey, Function<? super Cborable, V> toValue) {
+            CborMap val = (CborMap) get(key);
+            if (val == null)
+                return Collections.emptyMap();
+            return val.toMap(toKey, toValue);
+        }
+
+        public <K,V> Map<K,V> getListMap(String key, Function<? super Cborable, K> toKey, Function<? super Cborable, V> toValue) {
+            CborList val = (CborList) get(key);
+            if (val == null)
+                return Collections.emptyMap();
+            return val.getMap(toKey, toValue);
+        }
+    }
+
+    static int compare(Multihash a, Multihash b) {
+        byte[] aHash = a.getHash();
+        byte[] bHash = b.getHash();
+        int compare = Integer.compare(aHash.length, bHash.length);
+        if (compare != 0)
+            return compare;
+        for (int i = 0; i < aHash.length; i++) {
+            compare = Byte.compare(aHash[i], bHash[i]);
+            if (compare != 0)
+                return compare;
+        }
+        return Integer.compare(a.getType().index, b.getType().index);
+    }
+
+    final class CborMerkleLink implements CborObject, Comparable<CborMerkleLink> {
+        public final Multihash target;
+
+        public CborMerkleLink(Multihash target) {
+            validate(target);
+            this.target = target;
+        }
+
+        public static void validate(Multihash target) {
+            if (target instanceof Cid && ((Cid) target).version == 0)
+                throw new IllegalStateException("dag-cbor only supports v1 cids");
+            if (target instanceof Cid &&
+                    ((Cid) target).codec != Cid.Codec.DagCbor &&
+                    ((Cid) target).codec != Cid.Codec.Raw)
+                throw new IllegalStateException("only dag-cbor and raw codecs supported");
+            if (target.getType() != Multihash.Type.sha2_256 && target.getType() != Multihash.Type.blake3)
+                throw new IllegalStateException("dag-cbor only supports sha256 and blake3");
+        }
+
+        @Override
+        public int compareTo(CborMerkleLink that) {
+            return compare(this.target, that.target);
+        }
+
+        @Override
+        public void serialize(CborEncoder encoder) {
+            try {
+                encoder.writeTag(LINK_TAG);
+                byte[] cid = target.toBytes();
+                byte[] withMultibaseHeader = new byte[cid.length + 1];
+                System.arraycopy(cid, 0, withMultibaseHeader, 1, cid.length);
+                encoder.writeByteString(withMultibaseHeader);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public long encodedSize() {
+            long cidSize;
+            if (target instanceof Cid) {
+                Cid cid = (Cid) target;
+                cidSize = Varint.size(cid.version) + Varint.size(cid.codec.type);
+            } else
+                cidSize = 0;
+            int hashSize = target.getHash().length;
+            cidSize += Varint.size(target.getType().index) + Varint.size(hashSize) + hashSize;
+            // tag, then a byte string with a leading zero multibase prefix
+            return CborEncoder.headerSize(LINK_TAG) + CborEncoder.headerSize(cidSize + 1) + cidSize + 1;
+        }
+
+        @Override
+        public List<Multihash> links() {
+            return Collections.singletonList(target);
+        }
+
+        @Override
+        public void collectLinks(List<? super Multihash> res) {
+            res.add(target);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            CborMerkleLink that = (CborMerkleLink) o;
+
+            return target != null ? target.equals(that.target) : that.target == null;
+
+        }
+
+        @Override
+        public int hashCode() {
+            return target != null ? target.hashCode() : 0;
+        }
+
+        @Override
+        public String toString() {
+            return target.toString();
+        }
+    }
+
+    /** A list of values. Arrays are decoded into modifiable lists, except that arrays of only integers or only doubles
+     * are decoded into read-only packed lists, and empty arrays into the read-only {@link #EMPTY}. Copy {@link #value}
+     * into a new list to modify one of those.
+     */
+    final class CborList implements CborObject, Cborable {
+        public final List<? extends Cborable> value;
+        // Set for lists of integers or doubles kept in a primitive array, which value is then a read-only view of
+        private final long[] longs;
+        private final double[] doubles;
+
+        /** The shared empty list, which cannot be modified.
+         */
+        public static final CborList EMPTY = new CborList(Collections.emptyList());
+
+        public CborList(List<? extends Cborable> value) {
+            this(value, null, null);
+        }
+
+        private CborList(List<? extends Cborable> value, long[] longs, double[] doubles) {
+            this.value = value;
+            this.longs = longs;
+            this.doubles = doubles;
+        }
+
+        /** A list of integers kept in a copy of the given array.
+         */
+        public static CborList ofLongs(long[] values) {
+            return packed(values.clone());
+        }
+
+        /** A list of doubles kept in a copy of the given array, which must all be finite.
+         */
+        public static CborList ofDoubles(double[] values) {
+            for (double val : values)
+                if (! Double.isFinite(val))
+                    throw new IllegalStateException("dag-cbor only supports finite doubles!");
+            return packed(values.clone());
+        }
+
+        static CborList packed(long[] values) {
+            return new CborList(new PackedLongs(values), values, null);
+        }
+
+        static CborList packed(double[] values) {
+            return new CborList(new PackedDoubles(values), null, values);
+        }
+
+        /** Whether the items are kept in a primitive array rather than as objects.
+         */
+        public boolean isPacked() {
+            return longs != null || doubles != null;
+        }
+
+        private static final class PackedLongs extends AbstractList<CborLong> implements RandomAccess {
+            private final long[] values;
+
+            private PackedLongs(long[] values) {
+                this.values = values;
+            }
+
+            @Override
+            public CborLong get(int index) {
+                return CborLong.of(values[index]);
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        }
+
+        private static final class PackedDoubles extends AbstractList<CborDouble> implements RandomAccess {
+            private final double[] values;
+
+            private PackedDoubles(double[] values) {
+                this.values = values;
+            }
+
+            @Override
+            public CborDouble get(int index) {
+                return new CborDouble(values[index]);
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        }
+
+        public CborList(Map<? extends Cborable, ? extends Cborable> map) {
+            this.value = map.entrySet().stream()
+                .flatMap(e -> Stream.of(e.getKey(), e.getValue()))
+                .collect(Collectors.toList());
+            this.longs = null;
+            this.doubles = null;
+        }
+
+        public static <T> CborList build(List<T> in, Function<T, Cborable> toCbor) {
+            return new CborList(in.stream().map(toCbor).collect(Collectors.toList()));
+        }
+
+        @Override
+        public void serialize(CborEncoder encoder) {
+            try {
+                encoder.writeArrayStart(value.size());
+                if (longs != null) {
+                    for (long val : longs)
+                        encoder.writeInt(val);
+                } else if (doubles != null) {
+                    for (double val : doubles)
+                        encoder.writeDouble(val);
+                } else {
+                    for (Cborable object : value) {
+                        object.toCbor().serialize(encoder);
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public long encodedSize() {
+            long size = CborEncoder.headerSize(value.size());
+            if (longs != null) {
+                for (long val : longs)
+                    size += CborEncoder.headerSize((val >> 63) ^ val);
+                return size;
+            }
+            if (doubles != null)
+                return size + 9L * doubles.length;
+            for (Cborable object : value)
+                size += object.toCbor().encodedSize();
+            return size;
+        }
+
+        @Override
+        public List<Multihash> links() {
+            List<Multihash> res = new ArrayList<>();
+            collectLinks(res);
+            return res;
+        }
+
+        @Override
+        public void collectLinks(List<? super Multihash> res) {
+            if (isPacked())
+                return;
+            for (Cborable cbor : value)
+                cbor.toCbor().collectLinks(res);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            CborList cborList = (CborList) o;
+            if (longs != null && cborList.longs != null)
+                return Arrays.equals(longs, cborList.longs);
+            if (doubles != null && cborList.doubles != null)
+                return Arrays.equals(doubles, cborList.doubles);
+
+            return value != null ? value.equals(cborList.value) : cborList.value == null;
+        }
+
+        @Override
+        public int hashCode() {
+            return value != null ? value.hashCode() : 0;
+        }
+
+        public <T> List<T> map(Function<? super Cborable, T> fromCbor) {
+            return value.stream()
+                .map(fromCbor)
+                .collect(Collectors.toList());
+        }
+
+        public long getLong(int index) {
+            if (longs != null)
+                return longs[index];
+            return ((CborLong)value.get(index)).value;
+        }
+
+        public double getDouble(int index) {
+            if (doubles != null)
+                return doubles[index];
+            return ((CborDouble)value.get(index)).val;
+        }
+
+        /** The items, which must all be {@link CborLong}s.
+         */
+        public LongStream longStream() {
+            if (longs != null)
+                return Arrays.stream(longs);
+            return value.stream().mapToLong(c -> ((CborLong) c).value);
+        }
+
+        /** The items, which must all be {@link CborDouble}s.
+         */
+        public DoubleStream doubleStream() {
+            if (doubles != null)
+                return Arrays.stream(doubles);
+            return value.stream().mapToDouble(c -> ((CborDouble) c).val);
+        }
+
+        public <T> T get(int index, Function<? super Cborable, T> fromCbor) {
+            return fromCbor.apply(value.get(index));
+        }
+
+        public <K,V> Map<K, V> getMap(Function<? super Cborable, K> toKey, Function<? super Cborable, V> toValue) {
+            if (value.size() % 2 != 0)
+                throw new IllegalStateException();
+
+            Map<K, V> map = new HashMap<>();
+            for (int i = 0; i < value.size(); i += 2) {
+                K key = toKey.apply(value.get(i));
+                V _value = toValue.apply(value.get(i + 1));
+                map.put(key, _value);
+            }
+            return map;
+        }
+    }
+
+    final class CborBoolean implements CborObject {
+        public final boolean value;
+
+        public static final CborBoolean TRUE = new CborBoolean(true);
+        public static final CborBoolean FALSE = new CborBoolean(false);
+
+        public CborBoolean(boolean value) {
+            this.value = value;
+        }
+
+        /** The shared instance for the given value.
+         */
+        public static CborBoolean of(boolean value) {
+            return value ? TRUE : FALSE;
+        }
+
+        @Override
+        public void serialize(CborEncoder encoder) {
+            try {
+                encoder.writeBoolean(value);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public long encodedSize() {
+            return 1;
+        }
+
+        @Override
+        public List<Multihash> links() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            CborBoolean that = (CborBoolean) o;
+
+            return value == that.value;
+
+        }
+
+        @Override
+        public int hashCode() {
+            return (value ? 1 : 0);
+        }
+
+        @Override
+        public String toString() {
+            return "CborBoolean{" +
+                    value +
+                    '}';
+        }
+    }
+
+    final class CborByteArray implements CborObject, Comparable<CborByteArray> {
+        public final byte[] value;
+
+        public CborByteArray(byte[] value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(CborByteArray other) {
+            return compare(value, other.value);
+        }
+
+        /** This only matter so that we can have byte[]'s as keys in a sorted map deterministically
+         *
+         * @param a
+         * @param b
+         * @return
+         */
+        public static int compare(byte[] a, byte[] b)
+        {
+            if (a.length != b.length)
+                return a.length - b.length;
+            for (int i=0; i < a.length; i++)
+                if (a[i] != b[i])
+                    return a[i] & 0xff - b[i] & 0xff;
+            return 0;
+        }
+
+        @Override
+        public void serialize(CborEncoder encoder) {
+            try {
+                encoder.writeByteString(value);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public long encodedSize() {
+            return CborEncoder.headerSize(value.length) + value.length;
+        }
+
+        @Override
+        public List<Multihash> links() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o instanceof CborByteSlice)
+                return o.equals(this);
+            if (o == null || getClass() != o.getClass()) return false;
+
+            CborByteArray that = (CborByteArray) o;
+
+            return Arrays.equals(value, that.value);
+
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(value);
+        }
+    }
+
+    /** A byte string sharing the bytes of the buffer it was decoded from, see {@link CborDecoder#setSliceByteStrings}.
+     * It is equal to a {@link CborByteArray} with the same bytes.
+     */
+    final class CborByteSlice implements CborObject {
+        private final ByteBuffer value;
+
+        public CborByteSlice(ByteBuffer value) {
+            this.value = value.slice();
+        }
+
+        public int length() {
+            return value.remaining();
+        }
+
+        /** A read-only view of the bytes, without copying them.
+         */
+        public ByteBuffer asByteBuffer() {
+            return value.asReadOnlyBuffer();
+        }
+
+        /** A copy of the bytes.
+         */
+        public byte[] bytes() {
+            byte[] res = new byte[value.remaining()];
+            value.get(0, res);
+            return res;
+        }
+
+        public CborByteArray copy() {
+            return new CborByteArray(bytes());
+        }
+
+        @Override
+        public void serialize(CborEncoder encoder) {
+            try {
+                encoder.writeByteString(value);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public long encodedSize() {
+            return CborEncoder.headerSize(length()) + length();
+        }
+
+        @Override
+        public List<Multihash> links() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o instanceof CborByteSlice)
+                return value.equals(((CborByteSlice) o).value);
+            if (o instanceof CborByteArray)
+                return value.equals(ByteBuffer.wrap(((CborByteArray) o).value));
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            // the same as Arrays.hashCode of the bytes, as for an equal CborByteArray
+            int h = 1;
+            for (int i = 0; i < value.limit(); i++)
+                h = 31 * h + value.get(i);
+            return h;
+        }
+    }
+
+    final class CborString implements CborObject, Comparable<CborString> {
+
+        public final String value;
+
+        public static final CborString EMPTY = new CborString("");
+
+        public CborString(String value) {
+            this.value = value;
+        }
+
+        /** A string, sharing a single instance for the empty string.
+         */
+        public static CborString of(String value) {
+            return value.isEmpty() ? EMPTY : new CborString(value);
+        }
+
+        @Override
+        public int compareTo(CborString cborString) {
+            return compare(value, cborString.value);
+        }
+
+        /** The order of keys in a dag-cbor map, for use as the comparator of a map passed to {@link CborMap#build}
+         */
+        public static final Comparator<String> ORDER = CborString::compare;
+
+        public static int compare(String a, String b) {
+            int lenDiff = a.length() - b.length();
+            if (lenDiff != 0)
+                return lenDiff;
+            return a.compareTo(b);
+        }
+
+        @Override
+        public void serialize(CborEncoder encoder) {
+            try {
+                encoder.writeTextString(value);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public long encodedSize() {
+            int utf8Length = CborEncoder.utf8Length(value);
+            return CborEncoder.headerSize(utf8Length) + utf8Length;
+        }
+
+        @Override
+        public List<Multihash> links() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            CborString that = (CborString) o;
+
+            return value.equals(that.value);
+
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "CborString{\"" +
+                    value +
+                    "\"}";
+        }
+
+        public static String getString(Cborable cbor) {
+            return ((CborString)cbor).value;
+        }
+    }
+
+    final class CborLong implements CborObject, Comparable<CborLong> {
+        public final long value;
+
+        private static final int CACHE_LOW = -128;
+        private static final int CACHE_HIGH = 1023;
+        private static final CborLong[] CACHE = new CborLong[CACHE_HIGH - CACHE_LOW + 1];
+
+        static {
+            for (int i = 0; i < CACHE.length; i++)
+                CACHE[i] = new CborLong(i + CACHE_LOW);
+        }
+
+        public CborLong(long value) {
+            this.value = value;
+        }
+
+        /** An integer, sharing instances for small values (-128 to 1023), which covers most lengths, counts and
+         * enum-like fields.
+         */
+        public static CborLong of(long value) {
+            if (value >= CACHE_LOW && value <= CACHE_HIGH)
+                return CACHE[(int) value - CACHE_LOW];
+            return new CborLong(value);
+        }
+
+        @Override
+        public int compareTo(CborLong other) {
+            return Long.compare(value, other.value);
+        }
+
+        @Override
+        public void serialize(CborEncoder encoder) {
+            try {
+                encoder.writeInt(value);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public long encodedSize() {
+            return CborEncoder.headerSize((value >> 63) ^ value);
+        }
+
+        @Override
+        public List<Multihash> links() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            CborLong cborLong = (CborLong) o;
+
+            return value == cborLong.value;
+
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (value ^ (value >>> 32));
+        }
+
+        @Override
+        public String toString() {
+            return "CborLong{" +
+                    value +
+                    '}';
+        }
+    }
+
+    final class CborBigint implements CborObject {
+        public final BigInteger val;
+
+        public CborBigint(BigInteger val) {
+            this.val = val;
+        }
+
+        /** The value of an unsigned integer whose 64 bit encoding does not fit in a long, as read by
+         * {@link CborDecoder#readInt()}.
+         */
+        public static BigInteger fromUnsigned(long readValue) {
+            return BigInteger.valueOf(readValue & 0x7fffffffffffffffL)
+                    .add(BigInteger.ONE.shiftLeft(63));
+        }
+
+        /** The value of a negative integer whose 64 bit encoding does not fit in a long, as read by
+         * {@link CborDecoder#readInt()}.
+         */
+        public static BigInteger fromNegative(long readValue) {
+            return BigInteger.valueOf((readValue ^ -1L) & 0x7fffffffffffffffL)
+                    .add(BigInteger.ONE.shiftLeft(63))
+                    .add(BigInteger.ONE)
+                    .negate();
+        }
+
+        @Override
+        public void serialize(CborEncoder encoder) {
+            boolean negative = val.compareTo(BigInteger.ZERO) < 0;
+            int mt = ((negative ? -1 : 0) & NEG_INT_MASK);
+            try {
+                if (negative)
+                    encoder.writeUInt64(mt, val.negate()
+                            .subtract(BigInteger.ONE.shiftLeft(63))
+                            .subtract(BigInteger.ONE)
+                            .longValue() | 1L << 63);
+                else
+                    encoder.writeUInt64(mt, val.longValue());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public long encodedSize() {
+            return 9;
+        }
+
+        @Override
+        public List<Multihash> links() {
+            return Collections.emptyList();
+        }
+    }
+
+    final class CborHalfFloat implements CborObject {
+        public final float val;
+
+        public CborHalfFloat(float val) {
+            this.val = val;
+        }
+
+        @Override
+        public void serialize(CborEncoder encoder) {
+            try {
+                encoder.writeHalfPrecisionFloat(val);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public long encodedSize() {
+            return 3;
+        }
+
+        @Override
+        public List<Multihash> links() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CborHalfFloat that = (CborHalfFloat) o;
+            return Float.compare(val, that.val) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(val);
+        }
+    }
+
+    final class CborFloat implements CborObject {
+        public final float val;
+
+        public CborFloat(float val) {
+            this.val = val;
+        }
+
+        @Override
+        public void serialize(CborEncoder encoder) {
+            try {
+                encoder.writeFloat(val);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public long encodedSize() {
+            return 5;
+        }
+
+        @Override
+        public List<Multihash> links() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CborFloat cborFloat = (CborFloat) o;
+            return Float.compare(val, cborFloat.val) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(val);
+        }
+    }
+
+    final class CborDouble implements CborObject {
+        public final double val;
+
+        public CborDouble(double val) {
+            if (! Double.isFinite(val))
+                throw new IllegalStateException("dag-cbor only supports finite doubles!");
+            this.val = val;
+        }
+
+        @Override
+        public void serialize(CborEncoder encoder) {
+            try {
+                encoder.writeDouble(val);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public long encodedSize() {
+            return 9;
+        }
+
+        @Override
+        public List<Multihash> links() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CborDouble that = (CborDouble) o;
+            return Double.compare(val, that.val) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(val);
+        }
+    }
+
+    final class CborNull implements CborObject, Comparable<CborNull> {
+        public static final CborNull NULL = new CborNull();
+
+        public CborNull() {}
+
+        @Override
+        public int compareTo(CborNull cborNull) {
+            return 0;
+        }
+
+        @Override
+        public void serialize(CborEncoder encoder) {
+            try {
+                encoder.writeNull();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public long encodedSize() {
+            return 1;
+        }
+
+        @Override
+        public List<Multihash> links() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "CborNull{}";
+        }
+    }
+}
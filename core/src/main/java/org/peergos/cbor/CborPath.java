@@ -0,0 +1,186 @@
+package org.peergos.cbor;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.peergos.cbor.CborConstants.*;
+
+/**
+ * A compiled path into an encoded block, such as <code>a/b/3/c</code> or <code>statuses/&#42;/id</code>. Each step
+ * either names a map key, gives an index into an array, or is <code>&#42;</code> to match every value of a map or
+ * array. A step made of digits is an index in an array and a key in a map.
+ * <p>
+ * Paths run over the encoded bytes: values off the path are stepped over with
+ * {@link CborBufferDecoder#skipValue()}, and only the matched values are decoded, with the usual checks. Bytes that
+ * are skipped are only checked to be well-formed. A path without wildcards can match at most one value, so it stops
+ * reading as soon as it is found. Instances are immutable and can be shared between threads.
+ * </p>
+ */
+public final class CborPath {
+    private static final CborPath ROOT = new CborPath(new String[0]);
+
+    // per step: the key, or null for a wildcard; its UTF-8 encoding; the array index, or -1 if it is not one
+    private final String[] m_keys;
+    private final byte[][] m_utf8;
+    private final int[] m_indices;
+    private final boolean m_wildcard;
+
+    private CborPath(String[] keys) {
+        m_keys = keys;
+        m_utf8 = new byte[keys.length][];
+        m_indices = new int[keys.length];
+        boolean wildcard = false;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) {
+                wildcard = true;
+                m_indices[i] = -1;
+                continue;
+            }
+            m_utf8[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+            m_indices[i] = index(keys[i]);
+        }
+        m_wildcard = wildcard;
+    }
+
+    private static int index(String step) {
+        if (step.isEmpty() || step.length() > 9 || (step.length() > 1 && step.charAt(0) == '0'))
+            return -1;
+        for (int i = 0; i < step.length(); i++)
+            if (step.charAt(i) < '0' || step.charAt(i) > '9')
+                return -1;
+        return Integer.parseInt(step);
+    }
+
+    /**
+     * Compiles a path of steps separated by <code>/</code>. The empty path selects the whole block.
+     *
+     * @param path the path, cannot be <code>null</code>.
+     * @return the compiled path.
+     */
+    public static CborPath compile(String path) {
+        if (path.isEmpty())
+            return ROOT;
+        return of(path.split("/", -1));
+    }
+
+    /**
+     * Compiles a path from its steps, for keys that contain a <code>/</code>.
+     *
+     * @param steps the steps, each a key, an index or <code>&#42;</code>.
+     * @return the compiled path.
+     */
+    public static CborPath of(String... steps) {
+        String[] keys = new String[steps.length];
+        for (int i = 0; i < steps.length; i++)
+            keys[i] = "*".equals(steps[i]) ? null : Objects.requireNonNull(steps[i]);
+        return new CborPath(keys);
+    }
+
+    /**
+     * @return whether the path has a wildcard step, and so can match more than one value.
+     */
+    public boolean hasWildcard() {
+        return m_wildcard;
+    }
+
+    /**
+     * Selects every value the path matches in a block.
+     *
+     * @param block the encoded block, cannot be <code>null</code>.
+     * @return the decoded matches, in encoded order.
+     */
+    public List<CborObject> select(byte[] block) {
+        List<CborObject> res = new ArrayList<>();
+        select(block, res, m_wildcard ? Integer.MAX_VALUE : 1);
+        return res;
+    }
+
+    /**
+     * Selects the first value the path matches in a block, reading no further than needed to find it.
+     *
+     * @param block the encoded block, cannot be <code>null</code>.
+     * @return the decoded match, or <code>null</code> if there is none.
+     */
+    public CborObject selectFirst(byte[] block) {
+        List<CborObject> res = new ArrayList<>(1);
+        select(block, res, 1);
+        return res.isEmpty() ? null : res.get(0);
+    }
+
+    private void select(byte[] block, List<CborObject> res, int limit) {
+        try {
+            CborBufferDecoder decoder = new CborBufferDecoder(block);
+            if (! select(decoder, 0, res, limit) && decoder.remaining() > 0)
+                throw new IllegalStateException("Extra bytes in cbor!");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads the value at the decoder's position, adding the matches of the steps from the given one onwards.
+     *
+     * @return <code>true</code> once the limit is reached, in which case the value has not been read to its end.
+     */
+    private boolean select(CborBufferDecoder decoder, int step, List<CborObject> res, int limit) throws IOException {
+        if (step == m_keys.length) {
+            res.add(CborObject.deserialize(decoder, decoder.remaining()));
+            return res.size() == limit;
+        }
+        CborType type = decoder.peekType();
+        if (type == null)
+            throw new EOFException();
+        if (type.getMajorType() == TYPE_MAP) {
+            long n = decoder.readMapLength();
+            if (n < 0 || n > decoder.remaining())
+                throw new IllegalStateException("Invalid cbor: more map entries than original bytes!");
+            for (long i = 0; i < n; i++) {
+                if (matchKey(decoder, step)) {
+                    if (select(decoder, step + 1, res, limit))
+                        return true;
+                } else {
+                    decoder.skipValue();
+                }
+            }
+        } else if (type.getMajorType() == TYPE_ARRAY) {
+            long n = decoder.readArrayLength();
+            if (n < 0 || n > decoder.remaining())
+                throw new IllegalStateException("Invalid cbor: more array elements than original bytes!");
+            int index = m_keys[step] == null ? -1 : m_indices[step];
+            for (long i = 0; i < n; i++) {
+                if (m_keys[step] == null || i == index) {
+                    if (select(decoder, step + 1, res, limit))
+                        return true;
+                } else {
+                    decoder.skipValue();
+                }
+            }
+        } else {
+            decoder.skipValue();
+        }
+        return false;
+    }
+
+    private boolean matchKey(CborBufferDecoder decoder, int step) throws IOException {
+        CborType type = decoder.peekType();
+        if (type == null)
+            throw new EOFException();
+        if (type.getMajorType() != TYPE_TEXT_STRING)
+            throw new IllegalStateException("Invalid cbor map: non string key!");
+        int len = decoder.readStringLength(TYPE_TEXT_STRING, decoder.remaining());
+        int start = decoder.advance(len);
+        if (m_keys[step] == null)
+            return true;
+        byte[] key = m_utf8[step];
+        return Arrays.equals(decoder.m_buf, start, start + len, key, 0, key.length);
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner res = new StringJoiner("/");
+        for (String key : m_keys)
+            res.add(key == null ? "*" : key);
+        return res.toString();
+    }
+}
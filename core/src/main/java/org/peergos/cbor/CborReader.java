@@ -0,0 +1,314 @@
+package org.peergos.cbor;
+
+import io.ipfs.cid.Cid;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static org.peergos.cbor.CborConstants.*;
+
+/**
+ * A pull parser over a single dag-cbor value. Each call to {@link #next()} returns the next {@link Token}, and the
+ * scalar it carries is available from the matching accessor until the following call. The canonical dag-cbor rules
+ * that {@link CborObject#deserialize} enforces are checked as the tokens are read, but no {@link CborObject}s are
+ * created, so callers can decode straight into their own types.
+ */
+public class CborReader {
+
+    public enum Token {
+        /** Start of a map; {@link #length()} is the number of entries. Each entry is a {@link #KEY} then a value. */
+        MAP_START,
+        MAP_END,
+        /** Start of an array; {@link #length()} is the number of items. */
+        ARRAY_START,
+        ARRAY_END,
+        /** A map key, see {@link #stringValue()}. */
+        KEY,
+        /** A text string value, see {@link #stringValue()}. */
+        TEXT,
+        /** A byte string value, see {@link #bytesValue()}. */
+        BYTES,
+        /** An integer that fits in a long, see {@link #longValue()}. */
+        INT,
+        /** An integer that does not fit in a long, see {@link #bigIntegerValue()}. */
+        BIGINT,
+        /** A finite double, see {@link #doubleValue()}. */
+        DOUBLE,
+        /** See {@link #booleanValue()}. */
+        BOOLEAN,
+        NULL,
+        /** A merkle link, see {@link #linkValue()}. */
+        LINK,
+        /** The top level value has been read completely. */
+        END
+    }
+
+    private final CborDecoder m_decoder;
+    private final int m_maxBytes;
+
+    // one frame per open map or array: items left to read (keys and values for maps), and the last key of a map
+    private long[] m_remaining = new long[8];
+    private boolean[] m_isMap = new boolean[8];
+    private String[] m_lastKey = new String[8];
+    private int m_depth;
+    private boolean m_started;
+
+    private Token m_token;
+    private long m_long;
+    private double m_double;
+    private boolean m_boolean;
+    private String m_string;
+    private byte[] m_bytes;
+    private BigInteger m_bigint;
+    private Cid m_link;
+
+    /**
+     * Creates a new {@link CborReader} instance.
+     *
+     * @param decoder the decoder to read tokens from, cannot be <code>null</code>;
+     * @param maxBytes an upper bound on the encoded size of the value, used to reject impossible lengths.
+     */
+    public CborReader(CborDecoder decoder, int maxBytes) {
+        if (decoder == null) {
+            throw new IllegalArgumentException("Decoder cannot be null!");
+        }
+        m_decoder = decoder;
+        m_maxBytes = maxBytes;
+    }
+
+    /**
+     * Creates a new {@link CborReader} instance over a whole encoded block.
+     *
+     * @param cbor the CBOR-encoded data, cannot be <code>null</code>.
+     */
+    public CborReader(byte[] cbor) {
+        this(new CborBufferDecoder(cbor), cbor.length);
+    }
+
+    /**
+     * Reads the next token.
+     *
+     * @return the next token, {@link Token#END} once the top level value is complete.
+     * @throws IOException in case of I/O problems, or if the input ends prematurely.
+     * @throws IllegalStateException in case the input is not canonical dag-cbor.
+     */
+    public Token next() throws IOException {
+        if (m_depth > 0) {
+            int top = m_depth - 1;
+            if (m_remaining[top] == 0) {
+                m_depth--;
+                return m_token = m_isMap[top] ? Token.MAP_END : Token.ARRAY_END;
+            }
+            m_remaining[top]--;
+            if (m_isMap[top] && (m_remaining[top] & 1) == 1)
+                return m_token = readKey(top);
+        } else if (m_started) {
+            return m_token = Token.END;
+        }
+        m_started = true;
+        return m_token = readValue();
+    }
+
+    /**
+     * Reads the next value and everything nested in it, and discards it. The next token must start a value, so
+     * inside a map its key must have been read already.
+     *
+     * @throws IOException in case of I/O problems, or if the input ends prematurely.
+     * @throws IllegalStateException in case the input is not canonical dag-cbor.
+     */
+    public void skipValue() throws IOException {
+        int depth = m_depth;
+        next();
+        while (m_depth > depth)
+            next();
+    }
+
+    /**
+     * @return the most recently read token, or <code>null</code> if none has been read yet.
+     */
+    public Token token() {
+        return m_token;
+    }
+
+    /**
+     * @return the number of maps and arrays that are currently open.
+     */
+    public int depth() {
+        return m_depth;
+    }
+
+    /**
+     * @return the number of entries or items after {@link Token#MAP_START} or {@link Token#ARRAY_START}.
+     */
+    public int length() {
+        expect(m_token == Token.MAP_START || m_token == Token.ARRAY_START);
+        return (int) m_long;
+    }
+
+    /**
+     * @return the string after {@link Token#KEY} or {@link Token#TEXT}.
+     */
+    public String stringValue() {
+        expect(m_token == Token.KEY || m_token == Token.TEXT);
+        return m_string;
+    }
+
+    /**
+     * @return the bytes after {@link Token#BYTES}.
+     */
+    public byte[] bytesValue() {
+        expect(m_token == Token.BYTES);
+        return m_bytes;
+    }
+
+    /**
+     * @return the value after {@link Token#INT}.
+     */
+    public long longValue() {
+        expect(m_token == Token.INT);
+        return m_long;
+    }
+
+    /**
+     * @return the value after {@link Token#INT}, which must fit in an int.
+     */
+    public int intValue() {
+        long val = longValue();
+        if (val != (int) val) {
+            throw new IllegalStateException("Integer out of range: " + val);
+        }
+        return (int) val;
+    }
+
+    /**
+     * @return the value after {@link Token#INT} or {@link Token#BIGINT}.
+     */
+    public BigInteger bigIntegerValue() {
+        expect(m_token == Token.INT || m_token == Token.BIGINT);
+        return m_token == Token.INT ? BigInteger.valueOf(m_long) : m_bigint;
+    }
+
+    /**
+     * @return the value after {@link Token#DOUBLE}.
+     */
+    public double doubleValue() {
+        expect(m_token == Token.DOUBLE);
+        return m_double;
+    }
+
+    /**
+     * @return the value after {@link Token#BOOLEAN}.
+     */
+    public boolean booleanValue() {
+        expect(m_token == Token.BOOLEAN);
+        return m_boolean;
+    }
+
+    /**
+     * @return the target after {@link Token#LINK}.
+     */
+    public Cid linkValue() {
+        expect(m_token == Token.LINK);
+        return m_link;
+    }
+
+    private void expect(boolean matches) {
+        if (!matches) {
+            throw new IllegalStateException("No such value for token " + m_token);
+        }
+    }
+
+    private Token readKey(int frame) throws IOException {
+        CborType type = m_decoder.peekType();
+        if (type == null)
+            throw new EOFException();
+        if (type.getMajorType() != TYPE_TEXT_STRING)
+            throw new IllegalStateException("Invalid cbor map: non string key!");
+        String key = m_decoder.readTextString(m_maxBytes);
+        String last = m_lastKey[frame];
+        if (last != null) {
+            int cmp = CborObject.CborString.compare(key, last);
+            if (cmp < 0)
+                throw new IllegalStateException("Unsorted cbor map keys!");
+            if (cmp == 0)
+                throw new IllegalStateException("Invalid cbor map: duplicate key!");
+        }
+        m_lastKey[frame] = key;
+        m_string = key;
+        return Token.KEY;
+    }
+
+    private Token readValue() throws IOException {
+        CborType type = m_decoder.peekType();
+        if (type == null)
+            throw new EOFException();
+        switch (type.getMajorType()) {
+            case TYPE_TEXT_STRING:
+                m_string = m_decoder.readTextString(m_maxBytes);
+                return Token.TEXT;
+            case TYPE_BYTE_STRING:
+                m_bytes = m_decoder.readByteString(m_maxBytes);
+                return Token.BYTES;
+            case TYPE_UNSIGNED_INTEGER:
+            case TYPE_NEGATIVE_INTEGER: {
+                m_long = m_decoder.readInt();
+                m_bigint = CborDecoder.bigintValue(type.getMajorType(), m_long);
+                return m_bigint == null ? Token.INT : Token.BIGINT;
+            }
+            case TYPE_FLOAT_SIMPLE:
+                switch (type.getAdditionalInfo()) {
+                    case NULL:
+                        m_decoder.readNull();
+                        return Token.NULL;
+                    case TRUE:
+                    case FALSE:
+                        m_boolean = m_decoder.readBoolean();
+                        return Token.BOOLEAN;
+                    case DOUBLE_PRECISION_FLOAT:
+                        m_double = m_decoder.readFiniteDouble();
+                        return Token.DOUBLE;
+                    default:
+                        throw new IllegalStateException("Unimplemented simple type! " + type.getAdditionalInfo());
+                }
+            case TYPE_MAP: {
+                long nValues = m_decoder.readMapLength();
+                if (nValues < 0)
+                    throw new IllegalStateException("Invalid cbor: negative map element count!");
+                if (nValues > m_maxBytes)
+                    throw new IllegalStateException("Invalid cbor: more map elements than original bytes!");
+                push(true, 2 * nValues);
+                m_long = nValues;
+                return Token.MAP_START;
+            }
+            case TYPE_ARRAY: {
+                long nItems = m_decoder.readArrayLength();
+                if (nItems < 0)
+                    throw new IllegalStateException("Invalid cbor: negative array element count!");
+                if (nItems > m_maxBytes)
+                    throw new IllegalStateException("Invalid cbor: more array elements than original bytes!");
+                push(false, nItems);
+                m_long = nItems;
+                return Token.ARRAY_START;
+            }
+            case TYPE_TAG:
+                m_link = m_decoder.readLink(m_maxBytes);
+                return Token.LINK;
+            default:
+                throw new IllegalStateException("Unimplemented cbor type: " + type);
+        }
+    }
+
+    private void push(boolean isMap, long items) {
+        if (m_depth == m_remaining.length) {
+            int size = m_depth * 2;
+            m_remaining = Arrays.copyOf(m_remaining, size);
+            m_isMap = Arrays.copyOf(m_isMap, size);
+            m_lastKey = Arrays.copyOf(m_lastKey, size);
+        }
+        m_remaining[m_depth] = items;
+        m_isMap[m_depth] = isMap;
+        m_lastKey[m_depth] = null;
+        m_depth++;
+    }
+}
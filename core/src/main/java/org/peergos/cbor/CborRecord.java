@@ -0,0 +1,21 @@
+package org.peergos.cbor;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks a record for the dag-cbor annotation processor in the <tt>processor</tt> module, which generates a codec class
+ * named after it, e.g. <tt>CustomTypeCodec</tt> for <tt>CustomType</tt> or <tt>Outer_InnerCodec</tt> for a nested
+ * record. The codec writes each component as a map entry straight to a {@link CborEncoder}, with the keys in
+ * canonical order, and reads it back through a {@link CborReader}, without building a {@link CborObject.CborMap}.
+ * <p>
+ * Components may be strings, <tt>long</tt>, <tt>int</tt>, <tt>boolean</tt> and <tt>double</tt> values or their boxed
+ * types, <tt>byte[]</tt>, merkle links as {@link io.ipfs.multihash.Multihash} or {@link io.ipfs.cid.Cid}, other
+ * annotated records and lists of any of these. Components that are <code>null</code> are left out of the map, and
+ * missing keys decode to <code>null</code>. {@link CborRecordCodec} does the same at runtime.
+ * </p>
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface CborRecord {
+}
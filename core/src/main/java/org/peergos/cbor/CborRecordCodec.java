@@ -0,0 +1,462 @@
+package org.peergos.cbor;
+
+import io.ipfs.cid.Cid;
+import io.ipfs.multihash.Multihash;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Reads and writes records as dag-cbor maps, for types that cannot go through the annotation processor, see
+ * {@link CborRecord}. Each record class is inspected once: its accessors and canonical constructor become method
+ * handles, its keys are sorted into canonical order and encoded up front, and the result is cached per class.
+ * <p>
+ * The supported component types, {@link CborKey}, and the handling of <code>null</code> components and unknown keys
+ * are the same as for generated codecs, except that nested records need not be annotated. Instances are
+ * thread-safe.
+ * </p>
+ */
+public final class CborRecordCodec<T extends Record> {
+    private static final ClassValue<CborRecordCodec<?>> CODECS = new ClassValue<>() {
+        @Override
+        protected CborRecordCodec<?> computeValue(Class<?> type) {
+            return new CborRecordCodec<>(type.asSubclass(Record.class));
+        }
+    };
+
+    private final Class<T> m_type;
+    // in canonical key order
+    private final Property[] m_properties;
+    private final int m_arity;
+    // (Object[]) Object
+    private final MethodHandle m_constructor;
+
+    private CborRecordCodec(Class<T> type) {
+        m_type = type;
+        RecordComponent[] components = type.getRecordComponents();
+        m_arity = components.length;
+        Class<?>[] types = new Class<?>[m_arity];
+        List<Property> properties = new ArrayList<>(m_arity);
+        Set<String> keys = new HashSet<>();
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            for (int i = 0; i < m_arity; i++) {
+                RecordComponent c = components[i];
+                types[i] = c.getType();
+                CborKey key = c.getAnnotation(CborKey.class);
+                String name = key != null ? key.value() : c.getName();
+                if (!keys.add(name))
+                    throw new IllegalArgumentException("Duplicate cbor key " + name + " in " + type.getName());
+                Method accessor = c.getAccessor();
+                accessor.setAccessible(true);
+                properties.add(property(name, i, lookup.unreflect(accessor), c.getGenericType()));
+            }
+            Constructor<T> constructor = type.getDeclaredConstructor(types);
+            constructor.setAccessible(true);
+            m_constructor = lookup.unreflectConstructor(constructor)
+                    .asSpreader(Object[].class, m_arity)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot access record " + type.getName(), e);
+        }
+        properties.sort((a, b) -> CborObject.CborString.compare(a.key, b.key));
+        m_properties = properties.toArray(new Property[0]);
+    }
+
+    /**
+     * @return the codec for the given record class, created on first use.
+     * @throws IllegalArgumentException in case the class is not a record, or has components of unsupported types.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Record> CborRecordCodec<T> of(Class<T> type) {
+        if (!type.isRecord()) {
+            throw new IllegalArgumentException("Not a record: " + type.getName());
+        }
+        return (CborRecordCodec<T>) CODECS.get(type);
+    }
+
+    public byte[] serialize(T value) {
+        try {
+            CborBufferEncoder encoder = new CborBufferEncoder();
+            write(value, encoder);
+            return encoder.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public T deserialize(byte[] cbor) {
+        try {
+            CborBufferDecoder decoder = new CborBufferDecoder(cbor);
+            T res = read(new CborReader(decoder, cbor.length));
+            if (decoder.remaining() > 0)
+                throw new IllegalStateException("Extra bytes in cbor!");
+            return res;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes a record as a map, leaving out components that are <code>null</code>.
+     *
+     * @param value the record to write, cannot be <code>null</code>;
+     * @param encoder the encoder to write to, cannot be <code>null</code>.
+     * @throws IOException in case of I/O problems writing to the encoder.
+     */
+    public void write(T value, CborEncoder encoder) throws IOException {
+        try {
+            int size = 0;
+            for (Property p : m_properties)
+                if (p.isPresent(value))
+                    size++;
+            encoder.writeMapStart(size);
+            for (Property p : m_properties) {
+                if (!p.isPresent(value))
+                    continue;
+                encoder.write(p.encodedKey, 0, p.encodedKey.length);
+                p.write(value, encoder);
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * Reads the next value, which must be a map.
+     */
+    public T read(CborReader reader) throws IOException {
+        reader.next();
+        return readCurrent(reader);
+    }
+
+    /**
+     * Reads the value started by the current token, which must be a map. Keys the record does not have are skipped,
+     * and missing keys give <code>null</code> components.
+     *
+     * @throws IllegalStateException in case the value is not a map, or lacks the key of a primitive component.
+     */
+    public T readCurrent(CborReader reader) throws IOException {
+        if (reader.token() != CborReader.Token.MAP_START)
+            throw new IllegalStateException("Invalid cbor for " + m_type.getSimpleName() + "! " + reader.token());
+        Object[] args = new Object[m_arity];
+        // the reader checks that keys come in canonical order, so matching properties do too
+        int next = 0;
+        for (int remaining = reader.length(); remaining > 0; remaining--) {
+            reader.next();
+            String key = reader.stringValue();
+            while (next < m_properties.length && CborObject.CborString.compare(m_properties[next].key, key) < 0)
+                next++;
+            if (next < m_properties.length && m_properties[next].key.equals(key)) {
+                Property p = m_properties[next++];
+                reader.next();
+                args[p.index] = reader.token() == CborReader.Token.NULL ? null : p.codec.read(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.next();
+        for (Property p : m_properties) {
+            if (args[p.index] == null && p.primitive)
+                throw new IllegalStateException("Missing key " + p.key + " for " + m_type.getSimpleName() + "!");
+        }
+        try {
+            return m_type.cast(m_constructor.invokeExact(args));
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private static Property property(String key, int index, MethodHandle accessor, Type type) {
+        Class<?> rawType = accessor.type().returnType();
+        if (rawType == long.class)
+            return new LongProperty(key, index, accessor);
+        if (rawType == int.class)
+            return new IntProperty(key, index, accessor);
+        if (rawType == double.class)
+            return new DoubleProperty(key, index, accessor);
+        if (rawType == boolean.class)
+            return new BooleanProperty(key, index, accessor);
+        return new Property(key, index, accessor, codec(type), false);
+    }
+
+    /**
+     * A component, with its key already encoded. Reference types are read and written through their
+     * {@link ValueCodec}, while primitive types have subclasses that read them without boxing.
+     */
+    private static class Property {
+        final String key;
+        final byte[] encodedKey;
+        final int index;
+        final ValueCodec codec;
+        final boolean primitive;
+        // (Object) Object, or (Object) primitive in subclasses
+        final MethodHandle getter;
+
+        Property(String key, int index, MethodHandle accessor, ValueCodec codec, boolean primitive) {
+            this.key = key;
+            this.encodedKey = new CborObject.CborString(key).toByteArray();
+            this.index = index;
+            this.codec = codec;
+            this.primitive = primitive;
+            Class<?> returnType = primitive ? accessor.type().returnType() : Object.class;
+            this.getter = accessor.asType(MethodType.methodType(returnType, Object.class));
+        }
+
+        boolean isPresent(Object record) throws Throwable {
+            return (Object) getter.invokeExact(record) != null;
+        }
+
+        void write(Object record, CborEncoder encoder) throws Throwable {
+            codec.write((Object) getter.invokeExact(record), encoder);
+        }
+    }
+
+    private static final class LongProperty extends Property {
+        LongProperty(String key, int index, MethodHandle accessor) {
+            super(key, index, accessor, ValueCodec.LONG, true);
+        }
+
+        @Override
+        boolean isPresent(Object record) {
+            return true;
+        }
+
+        @Override
+        void write(Object record, CborEncoder encoder) throws Throwable {
+            encoder.writeInt((long) getter.invokeExact(record));
+        }
+    }
+
+    private static final class IntProperty extends Property {
+        IntProperty(String key, int index, MethodHandle accessor) {
+            super(key, index, accessor, ValueCodec.INT, true);
+        }
+
+        @Override
+        boolean isPresent(Object record) {
+            return true;
+        }
+
+        @Override
+        void write(Object record, CborEncoder encoder) throws Throwable {
+            encoder.writeInt((int) getter.invokeExact(record));
+        }
+    }
+
+    private static final class DoubleProperty extends Property {
+        DoubleProperty(String key, int index, MethodHandle accessor) {
+            super(key, index, accessor, ValueCodec.DOUBLE, true);
+        }
+
+        @Override
+        boolean isPresent(Object record) {
+            return true;
+        }
+
+        @Override
+        void write(Object record, CborEncoder encoder) throws Throwable {
+            encoder.writeDouble(finite((double) getter.invokeExact(record)));
+        }
+    }
+
+    private static final class BooleanProperty extends Property {
+        BooleanProperty(String key, int index, MethodHandle accessor) {
+            super(key, index, accessor, ValueCodec.BOOLEAN, true);
+        }
+
+        @Override
+        boolean isPresent(Object record) {
+            return true;
+        }
+
+        @Override
+        void write(Object record, CborEncoder encoder) throws Throwable {
+            encoder.writeBoolean((boolean) getter.invokeExact(record));
+        }
+    }
+
+    private static double finite(double val) {
+        if (!Double.isFinite(val))
+            throw new IllegalStateException("dag-cbor only supports finite doubles!");
+        return val;
+    }
+
+    private static ValueCodec codec(Type type) {
+        if (type == String.class)
+            return ValueCodec.STRING;
+        if (type == long.class || type == Long.class)
+            return ValueCodec.LONG;
+        if (type == int.class || type == Integer.class)
+            return ValueCodec.INT;
+        if (type == double.class || type == Double.class)
+            return ValueCodec.DOUBLE;
+        if (type == boolean.class || type == Boolean.class)
+            return ValueCodec.BOOLEAN;
+        if (type == byte[].class)
+            return ValueCodec.BYTES;
+        if (type == Multihash.class || type == Cid.class)
+            return ValueCodec.LINK;
+        if (type instanceof Class && ((Class<?>) type).isRecord())
+            return new RecordValue(((Class<?>) type).asSubclass(Record.class));
+        if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == List.class) {
+            Type item = ((ParameterizedType) type).getActualTypeArguments()[0];
+            if (item instanceof Class && ((Class<?>) item).isPrimitive())
+                throw new IllegalArgumentException("Unsupported type for dag-cbor: " + type);
+            return new ListValue(codec(item));
+        }
+        throw new IllegalArgumentException("Unsupported type for dag-cbor: " + type);
+    }
+
+    /**
+     * Reads and writes non-null values of one type. Reading starts from the current token of the reader.
+     */
+    private interface ValueCodec {
+        void write(Object value, CborEncoder encoder) throws IOException;
+
+        Object read(CborReader reader) throws IOException;
+
+        ValueCodec STRING = new ValueCodec() {
+            public void write(Object value, CborEncoder encoder) throws IOException {
+                encoder.writeTextString((String) value);
+            }
+
+            public Object read(CborReader reader) {
+                return reader.stringValue();
+            }
+        };
+
+        ValueCodec LONG = new ValueCodec() {
+            public void write(Object value, CborEncoder encoder) throws IOException {
+                encoder.writeInt((Long) value);
+            }
+
+            public Object read(CborReader reader) {
+                return reader.longValue();
+            }
+        };
+
+        ValueCodec INT = new ValueCodec() {
+            public void write(Object value, CborEncoder encoder) throws IOException {
+                encoder.writeInt((Integer) value);
+            }
+
+            public Object read(CborReader reader) {
+                return reader.intValue();
+            }
+        };
+
+        ValueCodec DOUBLE = new ValueCodec() {
+            public void write(Object value, CborEncoder encoder) throws IOException {
+                encoder.writeDouble(finite((Double) value));
+            }
+
+            public Object read(CborReader reader) {
+                return reader.doubleValue();
+            }
+        };
+
+        ValueCodec BOOLEAN = new ValueCodec() {
+            public void write(Object value, CborEncoder encoder) throws IOException {
+                encoder.writeBoolean((Boolean) value);
+            }
+
+            public Object read(CborReader reader) {
+                return reader.booleanValue();
+            }
+        };
+
+        ValueCodec BYTES = new ValueCodec() {
+            public void write(Object value, CborEncoder encoder) throws IOException {
+                encoder.writeByteString((byte[]) value);
+            }
+
+            public Object read(CborReader reader) {
+                return reader.bytesValue();
+            }
+        };
+
+        ValueCodec LINK = new ValueCodec() {
+            public void write(Object value, CborEncoder encoder) {
+                new CborObject.CborMerkleLink((Multihash) value).serialize(encoder);
+            }
+
+            public Object read(CborReader reader) {
+                return reader.linkValue();
+            }
+        };
+    }
+
+    private static final class ListValue implements ValueCodec {
+        private final ValueCodec items;
+
+        private ListValue(ValueCodec items) {
+            this.items = items;
+        }
+
+        @Override
+        public void write(Object value, CborEncoder encoder) throws IOException {
+            List<?> list = (List<?>) value;
+            encoder.writeArrayStart(list.size());
+            for (Object item : list) {
+                if (item == null)
+                    encoder.writeNull();
+                else
+                    items.write(item, encoder);
+            }
+        }
+
+        @Override
+        public Object read(CborReader reader) throws IOException {
+            if (reader.token() != CborReader.Token.ARRAY_START)
+                throw new IllegalStateException("Invalid cbor list! " + reader.token());
+            int size = reader.length();
+            List<Object> res = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                reader.next();
+                res.add(reader.token() == CborReader.Token.NULL ? null : items.read(reader));
+            }
+            reader.next();
+            return res;
+        }
+    }
+
+    /**
+     * A nested record, whose codec is looked up on first use so that records can contain themselves.
+     */
+    private static final class RecordValue implements ValueCodec {
+        private final Class<? extends Record> type;
+        private CborRecordCodec<Record> codec;
+
+        private RecordValue(Class<? extends Record> type) {
+            this.type = type;
+        }
+
+        @SuppressWarnings("unchecked")
+        private CborRecordCodec<Record> codec() {
+            CborRecordCodec<Record> c = codec;
+            if (c == null) {
+                // benign race, the codecs are cached per class
+                c = (CborRecordCodec<Record>) CODECS.get(type);
+                codec = c;
+            }
+            return c;
+        }
+
+        @Override
+        public void write(Object value, CborEncoder encoder) throws IOException {
+            codec().write((Record) value, encoder);
+        }
+
+        @Override
+        public Object read(CborReader reader) throws IOException {
+            return codec().readCurrent(reader);
+        }
+    }
+}
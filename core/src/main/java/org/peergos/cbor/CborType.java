@@ -17,6 +17,12 @@ import static org.peergos.cbor.CborConstants.*;
  * </p>
  */
 public class CborType {
+    private static final CborType[] TYPES = new CborType[256];
+    static {
+        for (int i = 0; i < TYPES.length; i++)
+            TYPES[i] = new CborType(i >>> 5, i & 0x1f);
+    }
+
     private final int m_major;
     private final int m_additional;
 
@@ -62,7 +68,7 @@ public class CborType {
      * @return a {@link CborType} instance, never <code>null</code>.
      */
     public static CborType valueOf(int i) {
-        return new CborType((i & 0xff) >>> 5, i & 0x1f);
+        return TYPES[i & 0xff];
     }
 
     @Override
@@ -0,0 +1,52 @@
+package org.peergos.cbor;
+
+import java.io.*;
+
+/**
+ * Unsigned LEB128 varints as used by multiformats, limited to 63 bits (9 bytes).
+ */
+final class Varint {
+    static final int MAX_SIZE = 9;
+
+    private Varint() {
+    }
+
+    static int size(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0)
+            size++;
+        return size;
+    }
+
+    /**
+     * Reads a varint from a stream.
+     *
+     * @return the value, or <tt>-1</tt> if the stream ended before its first byte.
+     * @throws IOException in case the stream ends within the varint, or the varint is longer than 9 bytes.
+     */
+    static long read(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0)
+                    return -1;
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+            if (shift == 7 * (MAX_SIZE - 1))
+                throw new IOException("Varint longer than " + MAX_SIZE + " bytes!");
+        }
+    }
+
+    static int write(long value, byte[] buf, int off) {
+        while ((value & ~0x7fL) != 0) {
+            buf[off++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buf[off++] = (byte) value;
+        return off;
+    }
+}
@@ -0,0 +1,1192 @@
+package org.peergos.cbor;
+
+import io.ipfs.cid.Cid;
+import io.ipfs.multihash.Multihash;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.MalformedInputException;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+public class CborTest {
+
+    @Test
+    public void basicTypes() {
+        CborObject.CborString orig = new CborObject.CborString("G'day mate!");
+        byte[] raw = orig.serialize();
+        Assert.assertArrayEquals(raw, HexUtil.hexToBytes("6b4727646179206d61746521"));
+    }
+
+    @Test
+    public void customType() {
+        CustomType orig = new CustomType("G'day!", 12345678910L, new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]));
+        byte[] raw = orig.serialize();
+        CustomType deserialized = CustomType.fromCbor(CborObject.fromByteArray(raw));
+        Assert.assertEquals(deserialized, orig);
+        byte[] roundTripped = deserialized.serialize();
+        Assert.assertArrayEquals(roundTripped, raw);
+    }
+
+    @Test
+    public void b3cid() {
+        byte[] raw = HexUtil.hexToBytes("d82a58250001551e208e4c7c1b99dbfd50e7a95185fead5ee1448fa904a2fdd778eaf5f2dbfd629a99");
+        CborObject cbor = CborObject.fromByteArray(raw);
+        byte[] roundTripped = cbor.serialize();
+        Assert.assertArrayEquals(roundTripped, raw);
+    }
+
+    @Test
+    public void subnormal() {
+        byte[] raw = HexUtil.hexToBytes("fb0000000000000001");
+        CborObject cbor = CborObject.fromByteArray(raw);
+        byte[] roundTripped = cbor.serialize();
+        Assert.assertArrayEquals(roundTripped, raw);
+    }
+
+    @Test
+    public void nullCbor() {
+        byte[] raw = HexUtil.hexToBytes("f6");
+        CborObject cbor = CborObject.fromByteArray(raw);
+        byte[] roundTripped = cbor.serialize();
+        Assert.assertArrayEquals(roundTripped, raw);
+    }
+
+    @Test
+    public void bigintMax() {
+        byte[] raw = HexUtil.hexToBytes("1bffffffffffffffff");
+        CborObject cbor = CborObject.fromByteArray(raw);
+        byte[] roundTripped = cbor.serialize();
+        Assert.assertArrayEquals(roundTripped, raw);
+    }
+
+    @Test
+    public void bigintMin() {
+        byte[] raw = HexUtil.hexToBytes("3bffffffffffffffff");
+        CborObject cbor = CborObject.fromByteArray(raw);
+        byte[] roundTripped = cbor.serialize();
+        Assert.assertArrayEquals(roundTripped, raw);
+    }
+
+    @Test
+    public void negativeZero() {
+        byte[] raw = HexUtil.hexToBytes("fb8000000000000000");
+        CborObject cbor = CborObject.fromByteArray(raw);
+        byte[] roundTripped = cbor.serialize();
+        Assert.assertArrayEquals(roundTripped, raw);
+    }
+
+    @Test
+    public void duplicateMapKeys() {
+        byte[] raw = HexUtil.hexToBytes("a2616100616101");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void cidv0() {
+        byte[] raw = HexUtil.hexToBytes("d82a582300122022ad631c69ee983095b5b8acd029ff94aff1dc6c48837878589a92b90dfea317");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void dagpb() {
+        byte[] raw = HexUtil.hexToBytes("d82a58250001701220e9822efc7c48027a5429fdbd988d02b2b8e4eaee8f62c32bd1021dcf922e05de");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void sha1() {
+        byte[] raw = HexUtil.hexToBytes("d82a58190001551114f572d396fae9206628714fb2ce00f72e94f2258f");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void repeatedObject() {
+        byte[] raw = HexUtil.hexToBytes("0000");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void unsortedMap() {
+        byte[] raw = HexUtil.hexToBytes("a2616201616100");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void undefined() {
+        byte[] raw = HexUtil.hexToBytes("f7");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void invalidUtf8() {
+        byte[] raw = HexUtil.hexToBytes("62c328");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (RuntimeException e) {
+            if (!(e.getCause() instanceof MalformedInputException))
+                throw new RuntimeException("Fail!");
+        }
+    }
+
+    @Test
+    public void asciiAndUtf8Strings() throws Exception {
+        for (String s : List.of("", "key", "a longer ascii string", "abcdefgh\u00e9", "\u65e5\u672c\u8a9e text", "\ud83d\ude00")) {
+            byte[] utf8 = s.getBytes("UTF-8");
+            byte[] raw = new CborObject.CborString(s).toByteArray();
+            Assert.assertArrayEquals(utf8, Arrays.copyOfRange(raw, raw.length - utf8.length, raw.length));
+            Assert.assertEquals(new CborObject.CborString(s), CborObject.fromByteArray(raw));
+            // an exactly sized buffer is enough, so it does not grow
+            CborBufferEncoder exact = new CborBufferEncoder(raw.length);
+            exact.writeTextString(s);
+            Assert.assertSame(exact.toByteArray(), exact.toByteArray());
+        }
+        // invalid after a run of ascii long enough to be skipped a word at a time
+        byte[] raw = HexUtil.hexToBytes("6a3031323334353637c328");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (RuntimeException e) {
+            if (!(e.getCause() instanceof MalformedInputException))
+                throw new RuntimeException("Fail!");
+        }
+    }
+
+    @Test
+    public void longCidTag() {
+        byte[] raw = HexUtil.hexToBytes("d9002a582500015512205891b5b522d5df086d0ff0b110fbd9d21bb4fc7163af34d08286a2e846f6be03");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void infinity() {
+        byte[] raw = HexUtil.hexToBytes("fb7ff0000000000000");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void nan() {
+        byte[] raw = HexUtil.hexToBytes("fb7ff8000000000000");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void undefinedMapLength() {
+        byte[] raw = HexUtil.hexToBytes("bfff");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void unneededExtraLengthByte() {
+        byte[] raw = HexUtil.hexToBytes("1801");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void unneededExtraLengthNegativeByte() {
+        byte[] raw = HexUtil.hexToBytes("3800");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void unneededExtraLengthShort() {
+        byte[] raw = HexUtil.hexToBytes("190001");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void unneededExtraLengthNegativeShort() {
+        byte[] raw = HexUtil.hexToBytes("390000");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void unneededExtraLengthInt() {
+        byte[] raw = HexUtil.hexToBytes("1a00000001");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void unneededExtraLengthNegativeInt() {
+        byte[] raw = HexUtil.hexToBytes("3a00000000");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void unneededExtraLengthLong() {
+        byte[] raw = HexUtil.hexToBytes("1b0000000000000001");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void unneededExtraLengthNegativeLong() {
+        byte[] raw = HexUtil.hexToBytes("3b0000000000000000");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void unneededExtraLengthByteString() {
+        byte[] raw = HexUtil.hexToBytes("5800");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void unneededExtraLengthString() {
+        byte[] raw = HexUtil.hexToBytes("7800");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void unneededExtraLengthArray() {
+        byte[] raw = HexUtil.hexToBytes("9800");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void bufferDecoderRange() throws Exception {
+        byte[] raw = HexUtil.hexToBytes("ff6b4727646179206d61746521ff");
+        CborObject fromRange = CborObject.fromByteArray(raw, 1, raw.length - 2);
+        Assert.assertEquals(fromRange, new CborObject.CborString("G'day mate!"));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(raw.length);
+        direct.put(raw).position(1).limit(raw.length - 1);
+        CborBufferDecoder decoder = new CborBufferDecoder(direct);
+        Assert.assertEquals(CborObject.deserialize(decoder, raw.length), fromRange);
+        Assert.assertEquals(decoder.remaining(), 0);
+        Assert.assertEquals(direct.position(), 1);
+    }
+
+    @Test
+    public void truncated() {
+        byte[] raw = HexUtil.hexToBytes("1b00000001000000");
+        try {
+            CborObject.fromByteArray(raw);
+            throw new IllegalStateException("Should fail!");
+        } catch (RuntimeException e) {
+            if (!(e.getCause() instanceof EOFException))
+                throw new RuntimeException("Fail!");
+        }
+    }
+
+    @Test
+    public void bufferEncoderMatchesStream() throws Exception {
+        long[] values = {0, 23, 24, 255, 256, 65535, 65536, 4294967295L, 4294967296L, Long.MAX_VALUE, -1, -25, Long.MIN_VALUE};
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        CborEncoder stream = new CborEncoder(bout);
+        CborBufferEncoder buffer = new CborBufferEncoder(1);
+        for (long value : values) {
+            stream.writeInt(value);
+            buffer.writeInt(value);
+        }
+        stream.writeDouble(1.5);
+        buffer.writeDouble(1.5);
+        stream.writeTextString("G'day mate!");
+        buffer.writeTextString("G'day mate!");
+        Assert.assertArrayEquals(buffer.toByteArray(), bout.toByteArray());
+        Assert.assertEquals(buffer.toByteBuffer().remaining(), buffer.size());
+    }
+
+    @Test
+    public void bufferEncoderHandsOffFullBuffer() throws Exception {
+        CborBufferEncoder buffer = new CborBufferEncoder(2);
+        buffer.writeInt(24);
+        byte[] full = buffer.toByteArray();
+        Assert.assertSame(full, buffer.toByteArray());
+
+        // later writes, after a reset or not, must not change what was handed out
+        buffer.reset();
+        buffer.writeInt(25);
+        Assert.assertArrayEquals(HexUtil.hexToBytes("1818"), full);
+        Assert.assertArrayEquals(HexUtil.hexToBytes("1819"), buffer.toByteArray());
+        buffer.writeInt(1);
+        Assert.assertArrayEquals(HexUtil.hexToBytes("1818"), full);
+        Assert.assertArrayEquals(HexUtil.hexToBytes("181901"), buffer.toByteArray());
+    }
+
+    @Test
+    public void lazyMap() {
+        CustomType orig = new CustomType("G'day!", 12345678910L, new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]));
+        byte[] raw = orig.serialize();
+        CborObject.CborMap lazy = (CborObject.CborMap) CborObject.fromByteArrayLazy(raw);
+        Assert.assertEquals(lazy.getLong("t"), 12345678910L);
+        Assert.assertTrue(lazy.containsKey("n"));
+        Assert.assertEquals(CustomType.fromCbor(lazy), orig);
+        Assert.assertEquals(lazy, CborObject.fromByteArray(raw));
+        Assert.assertArrayEquals(lazy.serialize(), raw);
+
+        // well-formed values that are not valid dag-cbor are only noticed when they are accessed
+        CborObject.CborMap withNaN = (CborObject.CborMap) CborObject.fromByteArrayLazy(HexUtil.hexToBytes("a26161006162fb7ff8000000000000"));
+        Assert.assertEquals(withNaN.getLong("a"), 0);
+        try {
+            withNaN.get("b");
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+        CborObject.CborMap withBadUtf8 = (CborObject.CborMap) CborObject.fromByteArrayLazy(HexUtil.hexToBytes("a2616100616261ff"));
+        Assert.assertEquals(withBadUtf8.getLong("a"), 0);
+        try {
+            withBadUtf8.get("b");
+            throw new RuntimeException("Should fail!");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof MalformedInputException);
+        }
+    }
+
+    @Test
+    public void lazyMapKeysCheckedUpFront() {
+        for (String hex : new String[] {"a2616100616101", "a2616201616100"}) {
+            try {
+                CborObject.fromByteArrayLazy(HexUtil.hexToBytes(hex));
+                throw new RuntimeException("Should fail!");
+            } catch (IllegalStateException e) {}
+        }
+    }
+
+    @Test
+    public void scannedLinks() {
+        Cid a = new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]);
+        byte[] hash = new byte[32];
+        hash[0] = 1;
+        Cid b = new Cid(1, Cid.Codec.Raw, Multihash.Type.blake3, hash);
+        SortedMap<String, Cborable> state = new TreeMap<>();
+        state.put("a", new CborObject.CborMerkleLink(a));
+        state.put("bytes", new CborObject.CborByteArray(new byte[300]));
+        state.put("list", new CborObject.CborList(List.of(new CborObject.CborLong(-70000),
+                new CborObject.CborMerkleLink(b), new CborObject.CborDouble(0.5), new CborObject.CborMerkleLink(a))));
+        byte[] raw = CborObject.CborMap.build(state).serialize();
+
+        List<Cid> links = CborObject.getLinks(a, raw);
+        Assert.assertEquals(links, List.of(a, b, a));
+        Assert.assertEquals(links, CborObject.fromByteArray(raw).links());
+        Assert.assertEquals(CborObject.getLinks(b, raw), Collections.emptyList());
+    }
+
+    @Test
+    public void scannedLinksChecked() {
+        Cid block = new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]);
+        String[] invalid = {
+                "d82a582300122022ad631c69ee983095b5b8acd029ff94aff1dc6c48837878589a92b90dfea317", // cid v0
+                "d82a58250001701220e9822efc7c48027a5429fdbd988d02b2b8e4eaee8f62c32bd1021dcf922e05de", // dag-pb
+                "d82a58190001551114f572d396fae9206628714fb2ce00f72e94f2258f", // sha1
+                "d82b00", // unknown tag
+                "d82a00" // not a byte string
+        };
+        for (String hex : invalid) {
+            try {
+                CborObject.getLinks(block, HexUtil.hexToBytes(hex));
+                throw new RuntimeException("Should fail!");
+            } catch (IllegalStateException e) {}
+        }
+    }
+
+    @Test
+    public void pullReader() throws Exception {
+        CustomType orig = new CustomType("G'day!", 12345678910L, new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]));
+        CborReader reader = new CborReader(orig.serialize());
+        Assert.assertEquals(reader.next(), CborReader.Token.MAP_START);
+        Assert.assertEquals(reader.length(), 3);
+        String name = null;
+        long time = 0;
+        Multihash ref = null;
+        while (reader.next() == CborReader.Token.KEY) {
+            String key = reader.stringValue();
+            reader.next();
+            switch (key) {
+                case "n": name = reader.stringValue(); break;
+                case "t": time = reader.longValue(); break;
+                case "r": ref = reader.linkValue(); break;
+            }
+        }
+        Assert.assertEquals(reader.token(), CborReader.Token.MAP_END);
+        Assert.assertEquals(reader.next(), CborReader.Token.END);
+        Assert.assertEquals(new CustomType(name, time, ref), orig);
+
+        CborReader nested = new CborReader(HexUtil.hexToBytes("82a0f6"));
+        List<CborReader.Token> tokens = new ArrayList<>();
+        for (CborReader.Token t = nested.next(); t != CborReader.Token.END; t = nested.next())
+            tokens.add(t);
+        Assert.assertEquals(tokens, List.of(CborReader.Token.ARRAY_START, CborReader.Token.MAP_START,
+                CborReader.Token.MAP_END, CborReader.Token.NULL, CborReader.Token.ARRAY_END));
+
+        // [[{}, [1]], 65536]
+        CborReader skipping = new CborReader(HexUtil.hexToBytes("8282a081011a00010000"));
+        Assert.assertEquals(skipping.next(), CborReader.Token.ARRAY_START);
+        skipping.skipValue();
+        Assert.assertEquals(skipping.depth(), 1);
+        Assert.assertEquals(skipping.next(), CborReader.Token.INT);
+        Assert.assertEquals(skipping.intValue(), 65536);
+        Assert.assertEquals(skipping.next(), CborReader.Token.ARRAY_END);
+    }
+
+    @Test
+    public void pullReaderCanonical() throws Exception {
+        String[] invalid = {"a2616100616101", "a2616201616100", "a10000", "fb7ff8000000000000", "1801", "d82b00", "f7"};
+        for (String hex : invalid) {
+            CborReader reader = new CborReader(HexUtil.hexToBytes(hex));
+            try {
+                while (reader.next() != CborReader.Token.END);
+                throw new RuntimeException("Should fail! " + hex);
+            } catch (IllegalStateException e) {}
+        }
+    }
+
+    @Test
+    public void encodedSize() {
+        Cid cid = new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]);
+        List<CborObject> values = List.of(
+                new CborObject.CborString("G'day mate!"),
+                new CborObject.CborString("\u00e9\u4e16\ud83d\ude00 \ud800 lone"),
+                new CborObject.CborLong(Long.MIN_VALUE),
+                new CborObject.CborLong(65536),
+                new CborObject.CborByteArray(new byte[256]),
+                new CborObject.CborMerkleLink(cid),
+                new CborObject.CborDouble(1.5),
+                new CborObject.CborNull(),
+                new CborObject.CborList(List.of(new CborObject.CborBoolean(true), new CborObject.CborLong(-24))),
+                new CustomType("G'day!", 12345678910L, cid).toCbor());
+        for (CborObject value : values) {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            value.serialize(new CborEncoder(bout));
+            Assert.assertEquals(value.encodedSize(), bout.size());
+            Assert.assertArrayEquals(value.toByteArray(), bout.toByteArray());
+            Assert.assertArrayEquals(value.toByteArray(bout.size()), bout.toByteArray());
+            try {
+                value.toByteArray(bout.size() - 1);
+                throw new RuntimeException("Should fail!");
+            } catch (IllegalStateException e) {}
+        }
+
+        // implementations outside this library get a size by counting the serialized bytes
+        CborObject custom = new CborObject() {
+            @Override
+            public void serialize(CborEncoder encoder) {
+                new CborObject.CborList(values).serialize(encoder);
+            }
+
+            @Override
+            public List<Multihash> links() {
+                return Collections.emptyList();
+            }
+        };
+        Assert.assertEquals(new CborObject.CborList(values).encodedSize(), custom.encodedSize());
+        Assert.assertArrayEquals(new CborObject.CborList(values).toByteArray(), custom.toByteArray());
+
+        // the built-in types are written into one exactly sized buffer, which is returned without copying
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        CborObject big = new CborObject.CborList(List.of(new CborObject.CborByteArray(new byte[1 << 20]),
+                new CborObject.CborString("G'day!")));
+        big.toByteArray();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        byte[] raw = big.toByteArray();
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        Assert.assertTrue("Allocated " + allocated + " bytes", allocated < raw.length + 4096);
+    }
+
+    @Test
+    public void internedKeys() throws Exception {
+        CborKeyCache keys = new CborKeyCache(16, 8);
+        byte[] raw = new CustomType("G'day!", 12345678910L, new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32])).serialize();
+        CborObject.CborMap first = (CborObject.CborMap) CborObject.fromByteArray(raw, keys);
+        CborDecoder stream = new CborDecoder(new ByteArrayInputStream(raw));
+        stream.setKeyCache(keys);
+        CborObject.CborMap second = (CborObject.CborMap) CborObject.deserialize(stream, raw.length);
+        Assert.assertEquals(first, second);
+        Assert.assertEquals(first, CborObject.fromByteArray(raw));
+        List<String> firstKeys = new ArrayList<>(), secondKeys = new ArrayList<>();
+        first.applyToAll((k, v) -> firstKeys.add(k));
+        second.applyToAll((k, v) -> secondKeys.add(k));
+        for (int i = 0; i < firstKeys.size(); i++)
+            Assert.assertSame(firstKeys.get(i), secondKeys.get(i));
+
+        try {
+            CborObject.fromByteArray(HexUtil.hexToBytes("a162c32800"), keys);
+            throw new RuntimeException("Should fail!");
+        } catch (RuntimeException e) {
+            if (!(e.getCause() instanceof MalformedInputException))
+                throw new RuntimeException("Fail!");
+        }
+    }
+
+    @Test
+    public void mapOrder() {
+        Map<String, Cborable> state = new HashMap<>();
+        state.put("bb", new CborObject.CborLong(2));
+        state.put("a", new CborObject.CborLong(1));
+        state.put("c", new CborObject.CborLong(3));
+        CborObject.CborMap map = CborObject.CborMap.build(state);
+        Assert.assertArrayEquals(map.serialize(), HexUtil.hexToBytes("a3616101616303626262" + "02"));
+
+        map.put("ab", new CborObject.CborLong(4));
+        map.put("a", new CborObject.CborLong(0));
+        Assert.assertEquals(map.size(), 4);
+        Assert.assertArrayEquals(map.serialize(), HexUtil.hexToBytes("a46161006163036261620462626202"));
+
+        CborObject.CborMap lazy = (CborObject.CborMap) CborObject.fromByteArrayLazy(HexUtil.hexToBytes("a3616101616303626262" + "02"));
+        lazy.put("ab", new CborObject.CborLong(4));
+        lazy.put("a", new CborObject.CborLong(0));
+        Assert.assertEquals(lazy, map);
+        Assert.assertEquals(lazy.hashCode(), map.hashCode());
+    }
+
+    @Test
+    public void keyHandles() {
+        CborObject.CborMap.Key t = new CborObject.CborMap.Key("t");
+        CborObject.CborMap.Key missing = new CborObject.CborMap.Key("zz");
+        Cid cid = new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]);
+        CborObject.CborMap small = (CborObject.CborMap) CborObject.fromByteArray(new CustomType("G'day!", 7, cid).serialize());
+        SortedMap<String, Cborable> state = new TreeMap<>();
+        state.put("a", new CborObject.CborLong(1));
+        state.put("t", new CborObject.CborLong(9));
+        CborObject.CborMap other = CborObject.CborMap.build(state);
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(small.getLong(t), 7);
+            Assert.assertEquals(other.getLong(t), 9);
+            Assert.assertFalse(small.containsKey(missing));
+        }
+
+        // keySet is a copy, in canonical order, that callers may change
+        Set<String> keys = small.keySet();
+        Assert.assertEquals(keys, Set.of("n", "r", "t"));
+        Assert.assertEquals(new ArrayList<>(keys), List.of("n", "r", "t"));
+        small.put("x", new CborObject.CborNull());
+        Assert.assertFalse(keys.contains("x"));
+        keys.remove("n");
+        keys.add("y");
+        Assert.assertEquals(small.keySet(), Set.of("n", "r", "t", "x"));
+    }
+
+    @Test
+    public void deepNesting() {
+        int depth = 100_000;
+        byte[] raw = new byte[2 * depth + 1];
+        for (int i = 0; i < depth; i++) {
+            raw[i] = (byte) 0x81; // array of one item
+            raw[depth + 1 + i] = (byte) 0xa1; // map of one entry
+        }
+        raw[depth] = (byte) 0xf6; // null
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+
+        CborDeserializer deserializer = new CborDeserializer(depth);
+        CborObject nested = deserializer.fromByteArray(Arrays.copyOf(raw, depth + 1));
+        for (int i = 0; i < depth; i++)
+            nested = (CborObject) ((CborObject.CborList) nested).value.get(0);
+        Assert.assertEquals(new CborObject.CborNull(), nested);
+
+        // the same instance decodes further blocks
+        CborObject.CborMap map = CborObject.CborMap.build(Map.of("a", new CborObject.CborList(List.of(new CborObject.CborLong(1)))));
+        Assert.assertEquals(map, deserializer.fromByteArray(map.toByteArray()));
+        byte[] nonStringKey = HexUtil.hexToBytes("a101f6");
+        try {
+            deserializer.fromByteArray(nonStringKey);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+
+        // the default path reuses one instance per thread, also after a failure
+        CborDeserializer shared = CborDeserializer.shared();
+        try {
+            CborObject.fromByteArray(raw);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+        Assert.assertEquals(map, CborObject.fromByteArray(map.toByteArray()));
+        Assert.assertSame(shared, CborDeserializer.shared());
+    }
+
+    @Test
+    public void validateOnly() {
+        SortedMap<String, Cborable> state = new TreeMap<>(CborObject.CborString.ORDER);
+        state.put("z", new CborObject.CborDouble(1.5));
+        state.put("\u00e9", new CborObject.CborString("caf\u00e9 \ud83d\ude00"));
+        state.put("ab", new CborObject.CborMerkleLink(new Cid(1, Cid.Codec.Raw, Multihash.Type.sha2_256, new byte[32])));
+        state.put("\ud83d\ude00", new CborObject.CborList(List.of(new CborObject.CborBigint(CborObject.CborBigint.fromUnsigned(-1L)))));
+        CborObject.validate(CborObject.CborMap.build(state).toByteArray());
+
+        String[] invalid = {"a2616100616101", "a2616201616100", "a10000", "a162c32800", "62c328", "fb7ff8000000000000",
+                "1801", "3b0000000000000000", "1c", "d82b00", "f7", "bfff", "6b4727646179206d61746521ff",
+                "d82a58250001701220e9822efc7c48027a5429fdbd988d02b2b8e4eaee8f62c32bd1021dcf922e05de", "1b00000001000000",
+                "a262c3a900617a00"};
+        for (String hex : invalid) {
+            try {
+                CborObject.validate(HexUtil.hexToBytes(hex));
+                Assert.fail("Should fail! " + hex);
+            } catch (RuntimeException e) {}
+        }
+    }
+
+    @Test
+    public void batchDecode() {
+        List<byte[]> blocks = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            blocks.add(i == 37 ? HexUtil.hexToBytes("a2616201616100") : new CborObject.CborLong(i).toByteArray());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<CborBatch.Result<CborObject>> results = CborBatch.decode(blocks, pool);
+            Assert.assertEquals(100, results.size());
+            for (int i = 0; i < 100; i++) {
+                if (i == 37) {
+                    Assert.assertFalse(results.get(i).isOk());
+                    Assert.assertTrue(results.get(i).error instanceof IllegalStateException);
+                } else
+                    Assert.assertEquals(new CborObject.CborLong(i), results.get(i).get());
+            }
+
+            Cid block = new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]);
+            Cid target = new Cid(1, Cid.Codec.Raw, Multihash.Type.sha2_256, new byte[32]);
+            Map<Cid, CborBatch.Result<List<Cid>>> links = CborBatch.getLinks(Map.of(block, new CborObject.CborMerkleLink(target).toByteArray()), pool);
+            Assert.assertEquals(List.of(target), links.get(block).get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void directBuffer() {
+        CustomType orig = new CustomType("G'day!", 12345678910L, new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]));
+        byte[] raw = orig.serialize();
+        ByteBuffer file = ByteBuffer.allocateDirect(raw.length + 10);
+        file.position(7);
+        file.put(raw);
+        file.put(HexUtil.hexToBytes("f6f6f6"));
+        file.position(3);
+        Assert.assertEquals(orig, CustomType.fromCbor(CborObject.fromByteBuffer(file, 7, raw.length)));
+        Assert.assertEquals(3, file.position());
+        try {
+            CborObject.fromByteBuffer(file, 7, raw.length + 1);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+        try {
+            CborObject.fromByteBuffer(file, 7, raw.length - 1);
+            throw new RuntimeException("Should fail!");
+        } catch (RuntimeException e) {
+            if (!(e.getCause() instanceof EOFException))
+                throw new RuntimeException("Fail!");
+        }
+    }
+
+    @Test
+    public void slicedByteStrings() throws Exception {
+        byte[] blob = new byte[100_000];
+        blob[0] = 7;
+        SortedMap<String, Cborable> state = new TreeMap<>(CborObject.CborString.ORDER);
+        state.put("data", new CborObject.CborByteArray(blob));
+        state.put("next", new CborObject.CborMerkleLink(new Cid(1, Cid.Codec.Raw, Multihash.Type.sha2_256, new byte[32])));
+        byte[] raw = CborObject.CborMap.build(state).toByteArray();
+
+        CborObject.CborMap sliced = (CborObject.CborMap) CborObject.fromByteArraySliced(raw);
+        Assert.assertEquals(CborObject.fromByteArray(raw), sliced);
+        Assert.assertArrayEquals(raw, sliced.toByteArray());
+        Assert.assertArrayEquals(blob, sliced.getByteArray("data"));
+        CborObject.CborByteSlice data = (CborObject.CborByteSlice) sliced.get("data");
+        Assert.assertEquals(blob.length, data.length());
+        Assert.assertTrue(data.asByteBuffer().isReadOnly());
+        // shares the source block: map header, key, byte string header
+        Assert.assertEquals(7, raw[1 + 5 + 5]);
+        raw[1 + 5 + 5] = 9;
+        Assert.assertEquals(9, data.asByteBuffer().get(0));
+
+        ByteBuffer file = ByteBuffer.allocateDirect(raw.length);
+        file.put(raw);
+        CborByteBufferDecoder decoder = new CborByteBufferDecoder(file, 0, raw.length);
+        decoder.setSliceByteStrings(true);
+        CborObject.CborMap direct = (CborObject.CborMap) CborObject.deserialize(decoder, raw.length);
+        Assert.assertEquals(sliced, direct);
+        Assert.assertArrayEquals(raw, direct.toByteArray());
+    }
+
+    @Test
+    public void recordCodec() {
+        Cid cid = new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]);
+        byte[] raw = new CustomType("G'day!", 12345678910L, cid).serialize();
+        CborRecordCodec<KeyedType> keyed = CborRecordCodec.of(KeyedType.class);
+        KeyedType orig = new KeyedType("G'day!", 12345678910L, cid);
+        Assert.assertArrayEquals(raw, keyed.serialize(orig));
+        Assert.assertEquals(orig, keyed.deserialize(raw));
+
+        CborRecordCodec<Tree> trees = CborRecordCodec.of(Tree.class);
+        Tree tree = new Tree("root", null, List.of(new Tree("leaf", 0.5, List.of()), new Tree("", 2.0, null)));
+        byte[] encoded = trees.serialize(tree);
+        Assert.assertArrayEquals(encoded, CborObject.fromByteArray(encoded).toByteArray());
+        Assert.assertEquals(tree, trees.deserialize(encoded));
+
+        // unknown keys are skipped, missing primitives are not allowed
+        SortedMap<String, Cborable> state = new TreeMap<>(CborObject.CborString.ORDER);
+        state.put("t", new CborObject.CborLong(7));
+        state.put("zz", new CborObject.CborList(List.of(new CborObject.CborNull())));
+        Assert.assertEquals(new KeyedType(null, 7, null), keyed.deserialize(CborObject.CborMap.build(state).toByteArray()));
+        try {
+            keyed.deserialize(HexUtil.hexToBytes("a0"));
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void carRoundTrip() throws Exception {
+        Cid root = new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]);
+        Cid raw = new Cid(1, Cid.Codec.Raw, Multihash.Type.sha2_256, new byte[32]);
+        Cid v0 = new Cid(0, Cid.Codec.DagProtobuf, Multihash.Type.sha2_256, new byte[32]);
+        byte[] rootBlock = new CborObject.CborMerkleLink(raw).toByteArray();
+        byte[] big = new byte[100_000];
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (CarWriter writer = new CarWriter(bout, List.of(root))) {
+            writer.write(root, rootBlock);
+            writer.write(raw, big);
+            writer.write(v0, new byte[0]);
+        }
+        byte[] car = bout.toByteArray();
+
+        CarReader reader = new CarReader(new ByteArrayInputStream(car));
+        Assert.assertEquals(List.of(root), reader.roots());
+        CborBlock block = reader.next();
+        Assert.assertEquals(root, block.cid);
+        Assert.assertArrayEquals(rootBlock, block.data);
+        block = reader.next();
+        Assert.assertEquals(raw, block.cid);
+        Assert.assertArrayEquals(big, block.data);
+        block = reader.next();
+        Assert.assertEquals(v0, block.cid);
+        Assert.assertEquals(0, block.data.length);
+        Assert.assertNull(reader.next());
+
+        CarReader truncated = new CarReader(new ByteArrayInputStream(Arrays.copyOf(car, car.length - 40)));
+        truncated.next();
+        try {
+            truncated.next();
+            throw new RuntimeException("Should fail!");
+        } catch (EOFException e) {}
+
+        // headers without a version or roots, or with roots that are not links
+        List<Map<String, Cborable>> headers = List.of(
+                Map.of("roots", new CborObject.CborList(List.of(new CborObject.CborMerkleLink(root)))),
+                Map.of("roots", new CborObject.CborList(List.of(new CborObject.CborMerkleLink(root))),
+                        "version", new CborObject.CborString("1")),
+                Map.of("roots", new CborObject.CborList(List.of(new CborObject.CborMerkleLink(root))),
+                        "version", new CborObject.CborLong(2)),
+                Map.of("version", new CborObject.CborLong(1)),
+                Map.of("roots", new CborObject.CborList(List.of(new CborObject.CborLong(1))), "version", new CborObject.CborLong(1)),
+                Map.of("roots", new CborObject.CborLong(1), "version", new CborObject.CborLong(1)));
+        for (Map<String, Cborable> header : headers) {
+            byte[] encoded = CborObject.CborMap.build(header).toByteArray();
+            ByteArrayOutputStream invalid = new ByteArrayOutputStream();
+            invalid.write(encoded.length);
+            invalid.write(encoded);
+            try {
+                new CarReader(new ByteArrayInputStream(invalid.toByteArray()));
+                throw new RuntimeException("Should fail! " + header);
+            } catch (IllegalStateException e) {}
+        }
+    }
+
+    @Test
+    public void blockCache() {
+        CborBlockCache cache = new CborBlockCache(4096);
+        Map<Cid, byte[]> store = new HashMap<>();
+        List<Cid> cids = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            byte[] hash = new byte[32];
+            hash[0] = (byte) i;
+            Cid cid = new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, hash);
+            SortedMap<String, Cborable> state = new TreeMap<>();
+            state.put("i", new CborObject.CborLong(i));
+            state.put("l", new CborObject.CborList(List.of(new CborObject.CborString("x"))));
+            store.put(cid, CborObject.CborMap.build(state).toByteArray());
+            cids.add(cid);
+        }
+
+        CborObject.CborMap first = (CborObject.CborMap) cache.get(cids.get(0), store::get);
+        Assert.assertSame(first, cache.get(cids.get(0), store::get));
+        Assert.assertEquals(1, cache.hits());
+        Assert.assertEquals(1, cache.misses());
+        Assert.assertTrue(first.isFrozen());
+        try {
+            first.put("j", new CborObject.CborNull());
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+        try {
+            first.getList("l").value.set(0, null);
+            throw new RuntimeException("Should fail!");
+        } catch (UnsupportedOperationException e) {}
+
+        for (Cid cid : cids)
+            Assert.assertEquals(store.get(cid).length, cache.get(cid, store::get).toByteArray().length);
+        Assert.assertTrue(cache.evictions() > 0);
+        Assert.assertTrue(cache.weight() <= 4096);
+        Assert.assertNull(cache.get(new Cid(1, Cid.Codec.Raw, Multihash.Type.sha2_256, new byte[32]), c -> null));
+
+        // invalidated blocks do not stay queued while the cache is below its bound
+        CborBlockCache small = new CborBlockCache(1 << 20);
+        for (int i = 0; i < 10_000; i++) {
+            Cid cid = cids.get(i % cids.size());
+            small.put(cid, store.get(cid));
+            small.invalidate(cid);
+        }
+        Assert.assertEquals(0, small.size());
+        Assert.assertEquals(0, small.weight());
+        Assert.assertEquals(0, small.queued());
+
+        // nor do they outnumber the cached blocks when some are kept
+        for (Cid cid : cids)
+            small.put(cid, store.get(cid));
+        Cid churned = cids.get(0);
+        for (int i = 0; i < 10_000; i++) {
+            small.invalidate(churned);
+            small.put(churned, store.get(churned));
+            Assert.assertTrue(small.queued() <= 2 * small.size() + 1);
+        }
+        Assert.assertEquals(cids.size(), small.size());
+    }
+
+    @Test
+    public void encodeAndHash() throws Exception {
+        List<CborObject> values = new ArrayList<>();
+        for (int i = 0; i < 2000; i++)
+            values.add(new CborObject.CborByteArray(new byte[i % 100]));
+        CborObject[] objects = {new CborObject.CborLong(1), new CborObject.CborList(values)};
+        for (CborObject obj : objects) {
+            CborBlock block = obj.toBlock();
+            byte[] raw = obj.toByteArray();
+            Assert.assertArrayEquals(raw, block.data);
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(raw);
+            Assert.assertEquals(new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, hash), block.cid);
+            Assert.assertEquals(block.cid, obj.toBlock(Multihash.Type.sha2_256, MessageDigest.getInstance("SHA-256")).cid);
+        }
+        try {
+            objects[0].toBlock(Multihash.Type.sha1, MessageDigest.getInstance("SHA-1"));
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalArgumentException e) {}
+        // digests that do not compute the hash type
+        try {
+            objects[0].toBlock(Multihash.Type.blake3, MessageDigest.getInstance("SHA-256"));
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalArgumentException e) {}
+        try {
+            objects[0].toBlock(Multihash.Type.sha2_256, MessageDigest.getInstance("SHA-512"));
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalArgumentException e) {}
+        try {
+            objects[0].toBlock(Multihash.Type.sha2_256, MessageDigest.getInstance("SHA3-256"));
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalArgumentException e) {}
+    }
+
+    @Test
+    public void packedLists() {
+        CborObject.CborList longs = CborObject.CborList.ofLongs(new long[] {0, -1, 24, 1L << 40, Long.MIN_VALUE});
+        CborObject.CborList doubles = CborObject.CborList.ofDoubles(new double[] {0.5, -2.25, 1e300});
+        CborObject.CborList boxed = new CborObject.CborList(new ArrayList<>(longs.value));
+        Assert.assertFalse(boxed.isPacked());
+        Assert.assertEquals(boxed, longs);
+        Assert.assertEquals(boxed.hashCode(), longs.hashCode());
+        Assert.assertArrayEquals(boxed.toByteArray(), longs.toByteArray());
+        Assert.assertEquals(longs.toByteArray().length, longs.encodedSize());
+        Assert.assertEquals(doubles.toByteArray().length, doubles.encodedSize());
+
+        for (CborObject.CborList list : List.of(longs, doubles)) {
+            CborObject decoded = CborObject.fromByteArray(list.toByteArray());
+            Assert.assertTrue(((CborObject.CborList) decoded).isPacked());
+            Assert.assertEquals(list, decoded);
+            Assert.assertArrayEquals(list.toByteArray(), decoded.toByteArray());
+        }
+        CborObject.CborList decoded = (CborObject.CborList) CborObject.fromByteArray(longs.toByteArray());
+        Assert.assertEquals(Long.MIN_VALUE, decoded.getLong(4));
+        Assert.assertEquals(1L << 40, decoded.longStream().max().getAsLong());
+        decoded = (CborObject.CborList) CborObject.fromByteArray(doubles.toByteArray());
+        Assert.assertEquals(-2.25, decoded.getDouble(1), 0);
+        Assert.assertEquals(new CborObject.CborDouble(1e300), decoded.value.get(2));
+        Assert.assertEquals(1e300 - 1.75, decoded.doubleStream().sum(), 0);
+
+        // arrays that stop being uniform part way through fall back to boxed items
+        List<CborObject> mixed = List.of(new CborObject.CborLong(1), new CborObject.CborLong(2), new CborObject.CborString("x"));
+        List<CborObject> bigint = List.of(new CborObject.CborLong(1),
+                new CborObject.CborBigint(BigInteger.ONE.shiftLeft(64).negate()));
+        List<CborObject> numbers = List.of(new CborObject.CborLong(1), new CborObject.CborDouble(1.5));
+        List<CborObject> floats = List.of(new CborObject.CborDouble(1.5), new CborObject.CborLong(1));
+        for (List<CborObject> items : List.of(mixed, bigint, numbers, floats)) {
+            CborObject.CborList list = new CborObject.CborList(items);
+            CborObject.CborList result = (CborObject.CborList) CborObject.fromByteArray(list.toByteArray());
+            Assert.assertFalse(result.isPacked());
+            Assert.assertEquals(list.value.size(), result.value.size());
+            Assert.assertArrayEquals(list.toByteArray(), result.toByteArray());
+        }
+
+        // packed arrays still count towards the nesting limit
+        byte[] nested = new CborObject.CborList(List.of(longs)).toByteArray();
+        try {
+            new CborDeserializer(1).fromByteArray(nested);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+        Assert.assertEquals(longs, ((CborObject.CborList) new CborDeserializer(2).fromByteArray(nested)).value.get(0));
+        try {
+            CborObject.CborList.ofDoubles(new double[] {Double.NaN});
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void sharedScalars() {
+        CborObject.CborList list = new CborObject.CborList(List.of(new CborObject.CborLong(7), new CborObject.CborLong(-128),
+                new CborObject.CborLong(5000), new CborObject.CborNull(), new CborObject.CborBoolean(true),
+                new CborObject.CborBoolean(false), new CborObject.CborString(""), new CborObject.CborList(new ArrayList<>()),
+                new CborObject.CborString("x")));
+        CborObject.CborList first = (CborObject.CborList) CborObject.fromByteArray(list.toByteArray());
+        CborObject.CborList second = (CborObject.CborList) CborObject.fromByteArray(list.toByteArray());
+        Assert.assertEquals(list, first);
+        for (int i = 0; i < list.value.size(); i++) {
+            boolean shared = i != 2 && i != 8;
+            Assert.assertEquals(shared, first.value.get(i) == second.value.get(i));
+        }
+        Assert.assertSame(CborObject.CborLong.of(1023), CborObject.CborLong.of(1023));
+        Assert.assertSame(CborObject.CborLong.of(7), first.value.get(0));
+        Assert.assertNotSame(CborObject.CborLong.of(1024), CborObject.CborLong.of(1024));
+        Assert.assertEquals(CborObject.CborLong.of(1024), new CborObject.CborLong(1024));
+        Assert.assertSame(CborObject.CborNull.NULL, first.value.get(3));
+        Assert.assertSame(CborObject.CborBoolean.of(true), first.value.get(4));
+        Assert.assertSame(CborObject.CborString.EMPTY, CborObject.CborString.of(""));
+        Assert.assertSame(CborObject.CborList.EMPTY, first.value.get(7));
+        // other decoded lists can still be modified
+        ((List<Cborable>) first.value).add(CborObject.CborNull.NULL);
+        Assert.assertEquals(list.value.size() + 1, first.value.size());
+        try {
+            ((List<Cborable>) CborObject.CborList.EMPTY.value).add(CborObject.CborNull.NULL);
+            throw new RuntimeException("Should fail!");
+        } catch (UnsupportedOperationException e) {}
+        Assert.assertEquals(0, CborBlockCache.retainedSize(CborObject.CborLong.of(0)));
+        Assert.assertTrue(CborBlockCache.retainedSize(new CborObject.CborLong(0)) > 0);
+    }
+
+    @Test
+    public void skipValues() throws Exception {
+        Cid cid = new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]);
+        CborObject.CborMap map = CborObject.CborMap.build(Map.of(
+                "blob", new CborObject.CborByteArray(new byte[70_000]),
+                "list", new CborObject.CborList(List.of(new CborObject.CborMerkleLink(cid), new CborObject.CborDouble(0.5),
+                        new CborObject.CborLong(Long.MIN_VALUE), new CborObject.CborNull(), CborObject.CborList.EMPTY)),
+                "nested", new CustomType("G'day!", 12345678910L, cid).toCbor()));
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        bout.write(map.toByteArray());
+        bout.write(new CborObject.CborString("next").toByteArray());
+        byte[] raw = bout.toByteArray();
+
+        List<CborDecoder> decoders = List.of(new CborDecoder(new ByteArrayInputStream(raw)), new CborBufferDecoder(raw),
+                new CborByteBufferDecoder(ByteBuffer.wrap(raw)));
+        for (CborDecoder decoder : decoders) {
+            decoder.skipValue();
+            Assert.assertEquals("next", decoder.readTextString(raw.length));
+            Assert.assertNull(decoder.peekType());
+        }
+
+        String[] invalid = {"", "82", "8201", "5a00010000", "9fff", "1801", "f7", "fa3fc00000", "9b00000000ffffffff"};
+        for (String hex : invalid) {
+            byte[] bytes = HexUtil.hexToBytes(hex);
+            for (CborDecoder decoder : List.of(new CborDecoder(new ByteArrayInputStream(bytes)), new CborBufferDecoder(bytes),
+                    new CborByteBufferDecoder(ByteBuffer.wrap(bytes)))) {
+                try {
+                    decoder.skipValue();
+                    throw new RuntimeException("Should fail! " + hex);
+                } catch (IOException | IllegalStateException e) {}
+            }
+        }
+
+        // every decoder accepts the same prefixes of a block, and finds the same links in it
+        byte[] block = map.toByteArray();
+        for (int len = 0; len <= block.length; len += len < 200 ? 1 : 997) {
+            byte[] prefix = Arrays.copyOf(block, len);
+            List<Boolean> accepted = new ArrayList<>();
+            for (CborDecoder decoder : List.of(new CborDecoder(new ByteArrayInputStream(prefix)), new CborBufferDecoder(prefix),
+                    new CborByteBufferDecoder(ByteBuffer.wrap(prefix)))) {
+                try {
+                    decoder.skipValue();
+                    accepted.add(true);
+                } catch (IOException e) {
+                    accepted.add(false);
+                }
+            }
+            Assert.assertEquals(List.of(len == block.length, len == block.length, len == block.length), accepted);
+        }
+        List<Cid> streamLinks = new ArrayList<>();
+        new CborDecoder(new ByteArrayInputStream(block)).readLinks(streamLinks);
+        Assert.assertEquals(List.of(cid, cid), streamLinks);
+        Assert.assertEquals(streamLinks, CborObject.getLinks(cid, block));
+    }
+
+    @Test
+    public void pathSelect() {
+        Cid cid = new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]);
+        List<CborObject> users = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            users.add(CborObject.CborMap.build(Map.of(
+                    "name", new CborObject.CborString("user" + i),
+                    "avatar", new CborObject.CborByteArray(new byte[1000]),
+                    "3", new CborObject.CborLong(i))));
+        CborObject.CborMap block = CborObject.CborMap.build(Map.of(
+                "users", new CborObject.CborList(users),
+                "root", new CborObject.CborMerkleLink(cid),
+                "a/b", new CborObject.CborBoolean(true),
+                "\u00e9t\u00e9", new CborObject.CborString("summer")));
+        byte[] raw = block.toByteArray();
+
+        Assert.assertEquals(List.of(new CborObject.CborString("user3")), CborPath.compile("users/3/name").select(raw));
+        Assert.assertEquals(List.of(new CborObject.CborLong(2)), CborPath.compile("users/2/3").select(raw));
+        Assert.assertEquals(new CborObject.CborMerkleLink(cid), CborPath.compile("root").selectFirst(raw));
+        Assert.assertEquals(block, CborPath.compile("").selectFirst(raw));
+        Assert.assertEquals(new CborObject.CborString("summer"), CborPath.compile("\u00e9t\u00e9").selectFirst(raw));
+        Assert.assertEquals(new CborObject.CborBoolean(true), CborPath.of("a/b").selectFirst(raw));
+        Assert.assertNull(CborPath.compile("users/5/name").selectFirst(raw));
+        Assert.assertNull(CborPath.compile("users/name").selectFirst(raw));
+        Assert.assertNull(CborPath.compile("root/x").selectFirst(raw));
+        Assert.assertTrue(CborPath.compile("users/03/name").select(raw).isEmpty());
+
+        CborPath names = CborPath.compile("users/*/name");
+        Assert.assertTrue(names.hasWildcard());
+        Assert.assertEquals("users/*/name", names.toString());
+        Assert.assertEquals(users.stream().map(u -> ((CborObject.CborMap) u).get("name")).toList(),
+                names.select(raw));
+        Assert.assertEquals(new CborObject.CborString("user0"), names.selectFirst(raw));
+        Assert.assertEquals(4, CborPath.compile("*").select(raw).size());
+        Assert.assertEquals(5, CborPath.compile("*/*/3").select(raw).size());
+
+        // only the matched values need to be valid, the rest only well-formed
+        byte[] truncated = Arrays.copyOf(raw, raw.length - 1);
+        Assert.assertEquals(new CborObject.CborString("user0"), CborPath.compile("users/0/name").selectFirst(truncated));
+        try {
+            names.select(truncated);
+            throw new RuntimeException("Should fail!");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof EOFException);
+        }
+        byte[] extra = Arrays.copyOf(raw, raw.length + 1);
+        try {
+            names.select(extra);
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    public void linkRulesShared() throws Exception {
+        String[] invalid = {
+                "d82b4100", // another tag
+                "d82a5823001220" + "0000000000000000000000000000000000000000000000000000000000000000", // cid v0
+                "d82a58221220" + "0000000000000000000000000000000000000000000000000000000000000000", // no multibase prefix
+                "d82a40", // empty
+                "d82a01" // not a string
+        };
+        for (String hex : invalid) {
+            byte[] raw = HexUtil.hexToBytes(hex);
+            try {
+                CborObject.fromByteArray(raw);
+                throw new RuntimeException("Should fail! " + hex);
+            } catch (IllegalStateException e) {}
+            try {
+                CborObject.validate(raw);
+                throw new RuntimeException("Should fail! " + hex);
+            } catch (IllegalStateException e) {}
+            try {
+                CborObject.getLinks(new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]), raw);
+                throw new RuntimeException("Should fail! " + hex);
+            } catch (IllegalStateException e) {}
+            try {
+                new CborReader(raw).next();
+                throw new RuntimeException("Should fail! " + hex);
+            } catch (IllegalStateException e) {}
+        }
+    }
+
+    record KeyedType(@CborKey("n") String name, @CborKey("t") long time, @CborKey("r") Multihash ref) {}
+
+    record Tree(String name, Double weight, List<Tree> children) {}
+
+    public record CustomType(String name, long time, Multihash ref) implements Cborable {
+
+        @Override
+        public CborObject toCbor() {
+            SortedMap<String, Cborable> state = new TreeMap<>();
+            state.put("n", new CborObject.CborString(name));
+            state.put("t", new CborObject.CborLong(time));
+            state.put("r", new CborObject.CborMerkleLink(ref));
+            return CborObject.CborMap.build(state);
+        }
+
+        public static CustomType fromCbor(Cborable cbor) {
+            if (! (cbor instanceof CborObject.CborMap))
+                throw new IllegalStateException("Invalid cbor for CustomType! " + cbor);
+            CborObject.CborMap m = (CborObject.CborMap) cbor;
+            return new CustomType(m.getString("n"), m.getLong("t"), m.getMerkleLink("r"));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.peergos.cbor.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.peergos.cbor.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a batch of blocks one by one on a single thread, against {@link CborBatch} on the common fork-join pool.
+ * The batch holds every map in a corpus file, each encoded as its own block.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class BatchBenchmark {
+
+    private final List<byte[]> blocks = new ArrayList<>();
+
+    @Setup
+    public void collect(Corpus corpus) {
+        collect(corpus.decoded);
+    }
+
+    private void collect(Cborable cbor) {
+        if (cbor instanceof CborObject.CborMap) {
+            CborObject.CborMap map = (CborObject.CborMap) cbor;
+            blocks.add(map.toByteArray());
+            map.applyToAll((k, v) -> collect(v));
+        } else if (cbor instanceof CborObject.CborList) {
+            ((CborObject.CborList) cbor).value.forEach(this::collect);
+        }
+    }
+
+    @Benchmark
+    public void sequential(Blackhole bh) {
+        for (byte[] block : blocks)
+            bh.consume(CborObject.fromByteArray(block));
+    }
+
+    @Benchmark
+    public List<CborBatch.Result<CborObject>> parallel() {
+        return CborBatch.decode(blocks);
+    }
+}
@@ -0,0 +1,69 @@
+package org.peergos.cbor.jmh;
+
+import io.ipfs.cid.Cid;
+import io.ipfs.multihash.Multihash;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.peergos.cbor.*;
+
+import java.io.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming a CAR file through {@link CarReader} and {@link CarWriter}. The file holds every map in a corpus file,
+ * each encoded as its own block.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class CarBenchmark {
+
+    private final List<Cid> cids = new ArrayList<>();
+    private final List<byte[]> blocks = new ArrayList<>();
+    private byte[] car;
+
+    @Setup
+    public void build(Corpus corpus) throws Exception {
+        collect(corpus.decoded, MessageDigest.getInstance("SHA-256"));
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        write(bout);
+        car = bout.toByteArray();
+    }
+
+    private void collect(Cborable cbor, MessageDigest sha256) {
+        if (cbor instanceof CborObject.CborMap) {
+            CborObject.CborMap map = (CborObject.CborMap) cbor;
+            byte[] block = map.toByteArray();
+            blocks.add(block);
+            cids.add(new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, sha256.digest(block)));
+            map.applyToAll((k, v) -> collect(v, sha256));
+        } else if (cbor instanceof CborObject.CborList) {
+            ((CborObject.CborList) cbor).value.forEach(v -> collect(v, sha256));
+        }
+    }
+
+    private void write(OutputStream out) throws IOException {
+        try (CarWriter writer = new CarWriter(out, cids.subList(0, 1))) {
+            for (int i = 0; i < blocks.size(); i++)
+                writer.write(cids.get(i), blocks.get(i));
+        }
+    }
+
+    @Benchmark
+    public void read(Blackhole bh) throws IOException {
+        CarReader reader = new CarReader(new ByteArrayInputStream(car));
+        CborBlock block;
+        while ((block = reader.next()) != null)
+            bh.consume(block);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        write(OutputStream.nullOutputStream());
+    }
+}
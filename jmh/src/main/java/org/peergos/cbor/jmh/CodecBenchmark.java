@@ -0,0 +1,66 @@
+package org.peergos.cbor.jmh;
+
+import io.ipfs.cid.Cid;
+import io.ipfs.multihash.Multihash;
+import org.openjdk.jmh.annotations.*;
+import org.peergos.cbor.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-block decode and encode throughput over the corpus files.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class CodecBenchmark {
+    private static final CborKeyCache KEYS = new CborKeyCache();
+    private static final Cid BLOCK = new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]);
+
+    @Benchmark
+    public CborObject decodeStream(Corpus corpus) {
+        byte[] raw = corpus.raw;
+        return CborObject.deserialize(new CborDecoder(new ByteArrayInputStream(raw)), raw.length);
+    }
+
+    @Benchmark
+    public CborObject fromByteArray(Corpus corpus) {
+        return CborObject.fromByteArray(corpus.raw);
+    }
+
+    @Benchmark
+    public CborObject fromByteArrayInterned(Corpus corpus) {
+        return CborObject.fromByteArray(corpus.raw, KEYS);
+    }
+
+    @Benchmark
+    public void validate(Corpus corpus) {
+        CborObject.validate(corpus.raw);
+    }
+
+    @Benchmark
+    public byte[] encodeStream(Corpus corpus) {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        corpus.decoded.serialize(new CborEncoder(bout));
+        return bout.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] toByteArray(Corpus corpus) {
+        return corpus.decoded.toByteArray();
+    }
+
+    @Benchmark
+    public List<Multihash> links(Corpus corpus) {
+        return corpus.decoded.links();
+    }
+
+    @Benchmark
+    public List<Cid> getLinks(Corpus corpus) {
+        return CborObject.getLinks(BLOCK, corpus.raw);
+    }
+}
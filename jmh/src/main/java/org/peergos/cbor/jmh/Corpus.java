@@ -0,0 +1,35 @@
+package org.peergos.cbor.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.peergos.cbor.*;
+
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * One file of the dag-cbor benchmark corpus, both raw and decoded. Files are looked up in the directory given by the
+ * <tt>dagcbor.data</tt> system property, falling back to <tt>data</tt> or <tt>../data</tt>.
+ */
+@State(Scope.Benchmark)
+public class Corpus {
+
+    @Param({"canada.json.dagcbor", "citm_catalog.json.dagcbor", "twitter.json.dagcbor"})
+    public String file;
+
+    public byte[] raw;
+    public CborObject decoded;
+
+    @Setup
+    public void load() throws IOException {
+        raw = Files.readAllBytes(dataDir().resolve(file));
+        decoded = CborObject.fromByteArray(raw);
+    }
+
+    public static Path dataDir() {
+        String configured = System.getProperty("dagcbor.data");
+        if (configured != null)
+            return Paths.get(configured);
+        Path local = Paths.get("data");
+        return Files.isDirectory(local) ? local : Paths.get("..", "data");
+    }
+}
@@ -0,0 +1,81 @@
+package org.peergos.cbor.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.peergos.cbor.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CborObject.CborMap} accessor cost, measured over every map in a decoded corpus file and every key of each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class MapAccessBenchmark {
+
+    private final List<CborObject.CborMap> maps = new ArrayList<>();
+    private final List<String[]> keys = new ArrayList<>();
+    private final List<CborObject.CborMap.Key[]> handles = new ArrayList<>();
+
+    @Setup
+    public void collect(Corpus corpus) {
+        collect(corpus.decoded);
+    }
+
+    private void collect(Cborable cbor) {
+        if (cbor instanceof CborObject.CborMap) {
+            CborObject.CborMap map = (CborObject.CborMap) cbor;
+            maps.add(map);
+            String[] mapKeys = map.keySet().toArray(new String[0]);
+            keys.add(mapKeys);
+            handles.add(Arrays.stream(mapKeys).map(CborObject.CborMap.Key::new).toArray(CborObject.CborMap.Key[]::new));
+            map.applyToAll((k, v) -> collect(v));
+        } else if (cbor instanceof CborObject.CborList) {
+            ((CborObject.CborList) cbor).value.forEach(this::collect);
+        }
+    }
+
+    @Benchmark
+    public void get(Blackhole bh) {
+        for (int i = 0; i < maps.size(); i++) {
+            CborObject.CborMap map = maps.get(i);
+            for (String key : keys.get(i))
+                bh.consume(map.get(key));
+        }
+    }
+
+    @Benchmark
+    public void getByKeyHandle(Blackhole bh) {
+        for (int i = 0; i < maps.size(); i++) {
+            CborObject.CborMap map = maps.get(i);
+            for (CborObject.CborMap.Key key : handles.get(i))
+                bh.consume(map.get(key));
+        }
+    }
+
+    @Benchmark
+    public void getOptional(Blackhole bh) {
+        for (int i = 0; i < maps.size(); i++) {
+            CborObject.CborMap map = maps.get(i);
+            for (String key : keys.get(i))
+                bh.consume(map.getOptional(key));
+        }
+    }
+
+    @Benchmark
+    public void containsMissingKey(Blackhole bh) {
+        for (CborObject.CborMap map : maps)
+            bh.consume(map.containsKey("missing"));
+    }
+
+    @Benchmark
+    public void keySet(Blackhole bh) {
+        for (CborObject.CborMap map : maps)
+            bh.consume(map.keySet());
+    }
+}
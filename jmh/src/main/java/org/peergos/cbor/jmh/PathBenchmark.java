@@ -0,0 +1,69 @@
+package org.peergos.cbor.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.peergos.cbor.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading part of a corpus file with a {@link CborPath}, against decoding the whole file and walking the tree. Each
+ * file has a path to a single value near its end and a path with a wildcard.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class PathBenchmark {
+    private static final Map<String, String[]> PATHS = Map.of(
+            "canada.json.dagcbor", new String[] {"features/0/properties/name", "features/*/type"},
+            "citm_catalog.json.dagcbor", new String[] {"performances/242/venueCode", "performances/*/id"},
+            "twitter.json.dagcbor", new String[] {"statuses/99/user/screen_name", "statuses/*/user/screen_name"});
+
+    @Param({"single", "wildcard"})
+    public String kind;
+
+    private byte[] raw;
+    private String[] steps;
+    private CborPath path;
+
+    @Setup
+    public void compile(Corpus corpus) {
+        raw = corpus.raw;
+        String spec = PATHS.get(corpus.file)[kind.equals("single") ? 0 : 1];
+        steps = spec.split("/");
+        path = CborPath.compile(spec);
+    }
+
+    @Benchmark
+    public List<CborObject> select() {
+        return path.select(raw);
+    }
+
+    @Benchmark
+    public List<Cborable> decodeAndWalk() {
+        List<Cborable> res = new ArrayList<>();
+        walk(CborObject.fromByteArray(raw), 0, res);
+        return res;
+    }
+
+    private void walk(Cborable value, int step, List<Cborable> res) {
+        if (step == steps.length) {
+            res.add(value);
+        } else if (value instanceof CborObject.CborMap) {
+            CborObject.CborMap map = (CborObject.CborMap) value;
+            if (steps[step].equals("*"))
+                map.applyToAll((k, v) -> walk(v, step + 1, res));
+            else if (map.containsKey(steps[step]))
+                walk(map.get(steps[step]), step + 1, res);
+        } else if (value instanceof CborObject.CborList) {
+            List<? extends Cborable> items = ((CborObject.CborList) value).value;
+            if (steps[step].equals("*"))
+                items.forEach(v -> walk(v, step + 1, res));
+            else
+                walk(items.get(Integer.parseInt(steps[step])), step + 1, res);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.peergos.cbor.jmh;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled and writes JSON results, so runs can be compared. Accepts the
+ * usual JMH command line; an explicit <tt>-rf</tt>/<tt>-rff</tt> overrides the JSON defaults.
+ */
+public class Runner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        ChainedOptionsBuilder opts = new OptionsBuilder()
+                .parent(cmd)
+                .addProfiler(GCProfiler.class);
+        if (!cmd.getResultFormat().hasValue())
+            opts.resultFormat(ResultFormatType.JSON);
+        if (!cmd.getResult().hasValue())
+            opts.result("jmh-result.json");
+        new org.openjdk.jmh.runner.Runner(opts.build()).run();
+    }
+}
@@ -0,0 +1,435 @@
+package org.peergos.cbor.processor;
+
+import org.peergos.cbor.CborKey;
+import org.peergos.cbor.CborObject;
+import org.peergos.cbor.CborRecord;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.tools.Diagnostic;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Generates a codec class for each record annotated with {@link CborRecord}. The codec has static methods to write
+ * a record to a {@link org.peergos.cbor.CborEncoder} and to read one from a {@link org.peergos.cbor.CborReader}, plus
+ * <tt>serialize</tt> and <tt>deserialize</tt> for whole blocks.
+ * <p>
+ * Keys are sorted into canonical dag-cbor order here, at compile time, so encoding writes each entry in turn. Decoding
+ * relies on the reader for the canonical checks, and skips keys that the record does not have.
+ * </p>
+ */
+@SupportedAnnotationTypes({"org.peergos.cbor.CborRecord", "org.peergos.cbor.CborKey"})
+public class CborRecordProcessor extends AbstractProcessor {
+
+    private static final String LIST = "java.util.List";
+    private static final Set<String> LINKS = Set.of("io.ipfs.multihash.Multihash", "io.ipfs.cid.Cid");
+
+    /** Thrown once an error has been reported, to stop generating the current codec. */
+    private static final class InvalidRecord extends Exception {
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for (Element element : round.getElementsAnnotatedWith(CborRecord.class)) {
+            try {
+                new Codec(checkRecord(element)).generate();
+            } catch (InvalidRecord e) {
+                // already reported
+            } catch (IOException e) {
+                error("Could not write codec: " + e.getMessage(), element);
+            }
+        }
+        return true;
+    }
+
+    private TypeElement checkRecord(Element element) throws InvalidRecord {
+        if (element.getKind() != ElementKind.RECORD)
+            throw error("@CborRecord only applies to records", element);
+        TypeElement record = (TypeElement) element;
+        if (!record.getTypeParameters().isEmpty())
+            throw error("@CborRecord records cannot be generic", element);
+        for (Element e = record; e instanceof TypeElement; e = e.getEnclosingElement())
+            if (e.getModifiers().contains(Modifier.PRIVATE))
+                throw error("@CborRecord records must be visible to their package", element);
+        return record;
+    }
+
+    private InvalidRecord error(String msg, Element element) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, msg, element);
+        return new InvalidRecord();
+    }
+
+    /**
+     * @return the qualified name of the codec for a record, flattening nested names with underscores.
+     */
+    private static String codecName(TypeElement record) {
+        StringBuilder name = new StringBuilder("Codec");
+        Element e = record;
+        for (; e instanceof TypeElement; e = e.getEnclosingElement())
+            name.insert(0, (e == record ? "" : "_")).insert(0, e.getSimpleName());
+        PackageElement pkg = (PackageElement) e;
+        return pkg.isUnnamed() ? name.toString() : pkg.getQualifiedName() + "." + name;
+    }
+
+    private static String simpleName(String qualifiedName) {
+        return qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1);
+    }
+
+    private static final class Component {
+        private final RecordComponentElement element;
+        private final String key;
+        private final TypeMirror type;
+        private final int index;
+
+        private Component(RecordComponentElement element, String key, int index) {
+            this.element = element;
+            this.key = key;
+            this.type = element.asType();
+            this.index = index;
+        }
+    }
+
+    private final class Codec {
+        private final TypeElement record;
+        private final String recordName;
+        private final String name;
+        private final List<Component> components = new ArrayList<>();
+        // helper methods for list types, by type, generated on first use
+        private final Map<String, Integer> lists = new LinkedHashMap<>();
+        private final List<TypeMirror> listTypes = new ArrayList<>();
+        private boolean usesFinite;
+
+        private Codec(TypeElement record) throws InvalidRecord {
+            this.record = record;
+            this.recordName = record.getQualifiedName().toString();
+            this.name = codecName(record);
+            Set<String> keys = new HashSet<>();
+            for (RecordComponentElement c : record.getRecordComponents()) {
+                CborKey key = c.getAnnotation(CborKey.class);
+                Component component = new Component(c, key != null ? key.value() : c.getSimpleName().toString(),
+                        components.size());
+                if (!keys.add(component.key))
+                    throw error("Duplicate cbor key " + component.key, c);
+                components.add(component);
+            }
+        }
+
+        private void generate() throws IOException, InvalidRecord {
+            List<Component> sorted = new ArrayList<>(components);
+            sorted.sort((a, b) -> CborObject.CborString.compare(a.key, b.key));
+
+            StringBuilder body = new StringBuilder();
+            writeMethod(body, sorted);
+            readMethod(body);
+            // list helpers may need further helpers for nested lists
+            for (int i = 0; i < listTypes.size(); i++)
+                listMethods(body, listTypes.get(i), i);
+            if (usesFinite)
+                finiteMethod(body);
+
+            String simpleName = simpleName(name);
+            int dot = name.lastIndexOf('.');
+            StringBuilder src = new StringBuilder();
+            if (dot > 0)
+                src.append("package ").append(name, 0, dot).append(";\n\n");
+            src.append("import org.peergos.cbor.*;\n\n");
+            src.append("import java.io.IOException;\n\n");
+            src.append("/**\n * Reads and writes {@link ").append(recordName).append("} as dag-cbor.\n */\n");
+            src.append("@javax.annotation.processing.Generated(\"").append(CborRecordProcessor.class.getName()).append("\")\n");
+            src.append("public final class ").append(simpleName).append(" {\n\n");
+            src.append("    private ").append(simpleName).append("() {\n    }\n\n");
+            src.append("    public static byte[] serialize(").append(recordName).append(" value) {\n");
+            src.append("        try {\n");
+            src.append("            CborBufferEncoder encoder = new CborBufferEncoder();\n");
+            src.append("            write(value, encoder);\n");
+            src.append("            return encoder.toByteArray();\n");
+            src.append("        } catch (IOException e) {\n");
+            src.append("            throw new RuntimeException(e);\n");
+            src.append("        }\n");
+            src.append("    }\n\n");
+            src.append("    public static ").append(recordName).append(" deserialize(byte[] cbor) {\n");
+            src.append("        try {\n");
+            src.append("            CborBufferDecoder decoder = new CborBufferDecoder(cbor);\n");
+            src.append("            ").append(recordName).append(" res = read(new CborReader(decoder, cbor.length));\n");
+            src.append("            if (decoder.remaining() > 0)\n");
+            src.append("                throw new IllegalStateException(\"Extra bytes in cbor!\");\n");
+            src.append("            return res;\n");
+            src.append("        } catch (IOException e) {\n");
+            src.append("            throw new RuntimeException(e);\n");
+            src.append("        }\n");
+            src.append("    }\n");
+            src.append(body);
+            src.append("}\n");
+
+            try (Writer out = processingEnv.getFiler().createSourceFile(name, record).openWriter()) {
+                out.write(src.toString());
+            }
+        }
+
+        private void writeMethod(StringBuilder out, List<Component> sorted) throws InvalidRecord {
+            out.append("\n    public static void write(").append(recordName).append(" value, CborEncoder encoder) throws IOException {\n");
+            out.append("        int size = ").append(sorted.size()).append(";\n");
+            for (Component c : sorted) {
+                if (!c.type.getKind().isPrimitive())
+                    out.append("        if (value.").append(c.element.getSimpleName()).append("() == null)\n            size--;\n");
+            }
+            out.append("        encoder.writeMapStart(size);\n");
+            for (Component c : sorted) {
+                String get = "value." + c.element.getSimpleName() + "()";
+                String indent = "        ";
+                if (!c.type.getKind().isPrimitive()) {
+                    out.append(indent).append("if (").append(get).append(" != null) {\n");
+                    indent += "    ";
+                }
+                out.append(indent).append("encoder.writeTextString(").append(literal(c.key)).append(");\n");
+                out.append(indent).append(writeStatement(c.type, get, c.element)).append("\n");
+                if (!c.type.getKind().isPrimitive())
+                    out.append("        }\n");
+            }
+            out.append("    }\n");
+        }
+
+        private void readMethod(StringBuilder out) throws InvalidRecord {
+            out.append("\n    /**\n     * Reads the next value, which must be a map.\n     */\n");
+            out.append("    public static ").append(recordName).append(" read(CborReader reader) throws IOException {\n");
+            out.append("        reader.next();\n");
+            out.append("        return readCurrent(reader);\n");
+            out.append("    }\n");
+            out.append("\n    /**\n     * Reads the value started by the current token, which must be a map.\n     */\n");
+            out.append("    public static ").append(recordName).append(" readCurrent(CborReader reader) throws IOException {\n");
+            out.append("        if (reader.token() != CborReader.Token.MAP_START)\n");
+            out.append("            throw new IllegalStateException(\"Invalid cbor for ").append(simpleName(recordName))
+                    .append("! \" + reader.token());\n");
+            for (Component c : components) {
+                out.append("        ").append(c.type).append(" c").append(c.index).append(" = ")
+                        .append(defaultValue(c.type)).append(";\n");
+                if (c.type.getKind().isPrimitive())
+                    out.append("        boolean has").append(c.index).append(" = false;\n");
+            }
+            out.append("        for (int remaining = reader.length(); remaining > 0; remaining--) {\n");
+            out.append("            reader.next();\n");
+            out.append("            switch (reader.stringValue()) {\n");
+            for (Component c : components) {
+                out.append("                case ").append(literal(c.key)).append(":\n");
+                out.append("                    reader.next();\n");
+                out.append("                    c").append(c.index).append(" = ").append(readExpression(c.type, c.element)).append(";\n");
+                if (c.type.getKind().isPrimitive())
+                    out.append("                    has").append(c.index).append(" = true;\n");
+                out.append("                    break;\n");
+            }
+            out.append("                default:\n");
+            out.append("                    reader.skipValue();\n");
+            out.append("            }\n");
+            out.append("        }\n");
+            out.append("        reader.next();\n");
+            for (Component c : components) {
+                if (c.type.getKind().isPrimitive()) {
+                    out.append("        if (!has").append(c.index).append(")\n");
+                    String key = literal(c.key);
+                    out.append("            throw new IllegalStateException(\"Missing key ").append(key, 1, key.length() - 1)
+                            .append(" for ").append(simpleName(recordName)).append("!\");\n");
+                }
+            }
+            out.append("        return new ").append(recordName).append("(");
+            for (Component c : components)
+                out.append(c.index == 0 ? "" : ", ").append("c").append(c.index);
+            out.append(");\n");
+            out.append("    }\n");
+        }
+
+        private void listMethods(StringBuilder out, TypeMirror listType, int index) throws InvalidRecord {
+            TypeMirror item = itemType(listType, record);
+            out.append("\n    private static void writeList").append(index).append("(").append(listType)
+                    .append(" list, CborEncoder encoder) throws IOException {\n");
+            out.append("        encoder.writeArrayStart(list.size());\n");
+            out.append("        for (").append(item).append(" item : list) {\n");
+            out.append("            if (item == null)\n");
+            out.append("                encoder.writeNull();\n");
+            out.append("            else\n");
+            out.append("                ").append(writeStatement(item, "item", record)).append("\n");
+            out.append("        }\n");
+            out.append("    }\n");
+            out.append("\n    private static ").append(listType).append(" readList").append(index)
+                    .append("(CborReader reader) throws IOException {\n");
+            out.append("        if (reader.token() != CborReader.Token.ARRAY_START)\n");
+            out.append("            throw new IllegalStateException(\"Invalid cbor list! \" + reader.token());\n");
+            out.append("        int size = reader.length();\n");
+            out.append("        java.util.List<").append(item).append("> res = new java.util.ArrayList<>(size);\n");
+            out.append("        for (int i = 0; i < size; i++) {\n");
+            out.append("            reader.next();\n");
+            out.append("            res.add(").append(readExpression(item, record)).append(");\n");
+            out.append("        }\n");
+            out.append("        reader.next();\n");
+            out.append("        return res;\n");
+            out.append("    }\n");
+        }
+
+        private void finiteMethod(StringBuilder out) {
+            out.append("\n    private static double finite(double val) {\n");
+            out.append("        if (!Double.isFinite(val))\n");
+            out.append("            throw new IllegalStateException(\"dag-cbor only supports finite doubles!\");\n");
+            out.append("        return val;\n");
+            out.append("    }\n");
+        }
+
+        private String writeStatement(TypeMirror type, String value, Element source) throws InvalidRecord {
+            switch (kindOf(type, source)) {
+                case "long":
+                    return "encoder.writeInt(" + value + ");";
+                case "boolean":
+                    return "encoder.writeBoolean(" + value + ");";
+                case "double":
+                    usesFinite = true;
+                    return "encoder.writeDouble(finite(" + value + "));";
+                case "bytes":
+                    return "encoder.writeByteString(" + value + ");";
+                case "string":
+                    return "encoder.writeTextString(" + value + ");";
+                case "link":
+                    return "new CborObject.CborMerkleLink(" + value + ").serialize(encoder);";
+                case "list":
+                    return "writeList" + list(type) + "(" + value + ", encoder);";
+                default:
+                    return codecName(recordOf(type)) + ".write(" + value + ", encoder);";
+            }
+        }
+
+        private String readExpression(TypeMirror type, Element source) throws InvalidRecord {
+            String kind = kindOf(type, source);
+            String read;
+            switch (kind) {
+                case "long":
+                    read = isInt(type) ? "reader.intValue()" : "reader.longValue()";
+                    break;
+                case "boolean":
+                    read = "reader.booleanValue()";
+                    break;
+                case "double":
+                    read = "reader.doubleValue()";
+                    break;
+                case "bytes":
+                    read = "reader.bytesValue()";
+                    break;
+                case "string":
+                    read = "reader.stringValue()";
+                    break;
+                case "link":
+                    read = "reader.linkValue()";
+                    break;
+                case "list":
+                    read = "readList" + list(type) + "(reader)";
+                    break;
+                default:
+                    read = codecName(recordOf(type)) + ".readCurrent(reader)";
+            }
+            if (type.getKind().isPrimitive())
+                return read;
+            return "reader.token() == CborReader.Token.NULL ? null : " + read;
+        }
+
+        private int list(TypeMirror type) {
+            String key = type.toString();
+            Integer index = lists.get(key);
+            if (index == null) {
+                index = listTypes.size();
+                lists.put(key, index);
+                listTypes.add(type);
+            }
+            return index;
+        }
+
+        /**
+         * @return how a type is encoded: long, boolean, double, bytes, string, link, list or record.
+         */
+        private String kindOf(TypeMirror type, Element source) throws InvalidRecord {
+            switch (type.getKind()) {
+                case LONG:
+                case INT:
+                    return "long";
+                case BOOLEAN:
+                    return "boolean";
+                case DOUBLE:
+                    return "double";
+                case ARRAY:
+                    if (((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE)
+                        return "bytes";
+                    break;
+                case DECLARED: {
+                    String name = ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+                    switch (name) {
+                        case "java.lang.Long":
+                        case "java.lang.Integer":
+                            return "long";
+                        case "java.lang.Boolean":
+                            return "boolean";
+                        case "java.lang.Double":
+                            return "double";
+                        case "java.lang.String":
+                            return "string";
+                        case LIST:
+                            itemType(type, source);
+                            return "list";
+                    }
+                    if (LINKS.contains(name))
+                        return "link";
+                    TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+                    if (element.getKind() == ElementKind.RECORD && element.getAnnotation(CborRecord.class) != null)
+                        return "record";
+                    break;
+                }
+            }
+            throw error("Unsupported type for dag-cbor: " + type, source);
+        }
+
+        private boolean isInt(TypeMirror type) {
+            return type.getKind() == TypeKind.INT || type.toString().equals("java.lang.Integer");
+        }
+
+        private TypeElement recordOf(TypeMirror type) {
+            return (TypeElement) ((DeclaredType) type).asElement();
+        }
+
+        private TypeMirror itemType(TypeMirror listType, Element source) throws InvalidRecord {
+            List<? extends TypeMirror> args = ((DeclaredType) listType).getTypeArguments();
+            if (args.size() != 1 || args.get(0).getKind() == TypeKind.WILDCARD || args.get(0).getKind() == TypeKind.TYPEVAR)
+                throw error("Lists must have a concrete item type: " + listType, source);
+            if (args.get(0).getKind().isPrimitive())
+                throw error("Unsupported type for dag-cbor: " + listType, source);
+            return args.get(0);
+        }
+
+        private String defaultValue(TypeMirror type) {
+            switch (type.getKind()) {
+                case BOOLEAN:
+                    return "false";
+                case LONG:
+                case INT:
+                case DOUBLE:
+                    return "0";
+                default:
+                    return "null";
+            }
+        }
+    }
+
+    private static String literal(String value) {
+        StringBuilder res = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\')
+                res.append('\\').append(c);
+            else if (c < 0x20 || c > 0x7e)
+                res.append(String.format("\\u%04x", (int) c));
+            else
+                res.append(c);
+        }
+        return res.append('"').toString();
+    }
+}
@@ -0,0 +1,294 @@
+package org.peergos.cbor.processor;
+
+import io.ipfs.cid.Cid;
+import io.ipfs.multihash.Multihash;
+import org.junit.Assert;
+import org.junit.Test;
+import org.peergos.cbor.*;
+
+import javax.tools.*;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.*;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class CborRecordProcessorTest {
+
+    private static final String CUSTOM_TYPE = """
+            package sample;
+
+            import io.ipfs.multihash.Multihash;
+            import org.peergos.cbor.*;
+
+            import java.util.*;
+
+            @CborRecord
+            public record CustomType(@CborKey("n") String name, @CborKey("t") long time, @CborKey("r") Multihash ref) implements Cborable {
+
+                @Override
+                public CborObject toCbor() {
+                    SortedMap<String, Cborable> state = new TreeMap<>();
+                    state.put("n", new CborObject.CborString(name));
+                    state.put("t", new CborObject.CborLong(time));
+                    state.put("r", new CborObject.CborMerkleLink(ref));
+                    return CborObject.CborMap.build(state);
+                }
+            }
+            """;
+
+    private static final String TREE = """
+            package sample;
+
+            import org.peergos.cbor.*;
+
+            import java.util.List;
+
+            @CborRecord
+            public record Tree(String name, Double weight, List<Tree> children) {}
+            """;
+
+    private static final String OUTER = """
+            package sample;
+
+            import io.ipfs.cid.Cid;
+            import org.peergos.cbor.*;
+
+            import java.util.List;
+
+            public class Outer {
+
+                @CborRecord
+                public record Inner(@CborKey("size") int count, boolean flag, double real, byte[] data, Cid link,
+                                    List<List<Long>> grid, List<CustomType> items, CustomType custom,
+                                    @CborKey("\\u00e9t\\"e") Integer renamed) {}
+            }
+            """;
+
+    @Test
+    public void matchesCustomType() throws Exception {
+        ClassLoader loader = compile(Map.of("sample/CustomType.java", CUSTOM_TYPE));
+        Cid cid = new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]);
+        Object orig = create(loader, "sample.CustomType", "G'day!", 12345678910L, cid);
+        byte[] raw = serialize(loader, "sample.CustomTypeCodec", orig);
+        Assert.assertArrayEquals(((Cborable) orig).serialize(), raw);
+        Assert.assertEquals(orig, deserialize(loader, "sample.CustomTypeCodec", raw));
+
+        // unknown keys are skipped, in any position
+        SortedMap<String, Cborable> state = new TreeMap<>(CborObject.CborString.ORDER);
+        state.put("a", CborObject.CborMap.build(Map.of("x", new CborObject.CborList(List.of(new CborObject.CborNull())))));
+        state.put("n", new CborObject.CborString("G'day!"));
+        state.put("t", new CborObject.CborLong(7));
+        state.put("zz", new CborObject.CborMerkleLink(cid));
+        Assert.assertEquals(create(loader, "sample.CustomType", "G'day!", 7L, null),
+                deserialize(loader, "sample.CustomTypeCodec", CborObject.CborMap.build(state).toByteArray()));
+
+        // missing primitives are not allowed
+        try {
+            deserialize(loader, "sample.CustomTypeCodec", CborObject.CborMap.build(new TreeMap<>()).toByteArray());
+            throw new RuntimeException("Should fail!");
+        } catch (IllegalStateException e) {}
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void nestedRecords() throws Exception {
+        ClassLoader loader = compile(Map.of("sample/CustomType.java", CUSTOM_TYPE, "sample/Tree.java", TREE,
+                "sample/Outer.java", OUTER));
+        Cid cid = new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, new byte[32]);
+
+        // null components are left out, and the generated codec agrees with the runtime one
+        Object leaf = create(loader, "sample.Tree", "leaf", 0.5, List.of());
+        Object tree = create(loader, "sample.Tree", "root", null, List.of(leaf, create(loader, "sample.Tree", "", 2.0, null)));
+        byte[] encoded = serialize(loader, "sample.TreeCodec", tree);
+        Class<Record> treeType = (Class<Record>) loader.loadClass("sample.Tree");
+        Assert.assertArrayEquals(CborRecordCodec.of(treeType).serialize((Record) tree), encoded);
+        Assert.assertEquals(Set.of("name", "children"), ((CborObject.CborMap) CborObject.fromByteArray(encoded)).keySet());
+        Assert.assertEquals(tree, deserialize(loader, "sample.TreeCodec", encoded));
+
+        Object custom = create(loader, "sample.CustomType", "G'day!", 12345678910L, cid);
+        byte[] data = {1, 2, 3};
+        Object inner = create(loader, "sample.Outer$Inner", 7, true, 1.5, data, cid,
+                List.of(List.of(1L, -2L), List.of()), Arrays.asList(custom, null), custom, 3);
+        byte[] raw = serialize(loader, "sample.Outer_InnerCodec", inner);
+        Assert.assertArrayEquals(CborObject.fromByteArray(raw).toByteArray(), raw);
+
+        SortedMap<String, Cborable> state = new TreeMap<>(CborObject.CborString.ORDER);
+        state.put("size", new CborObject.CborLong(7));
+        state.put("flag", new CborObject.CborBoolean(true));
+        state.put("real", new CborObject.CborDouble(1.5));
+        state.put("data", new CborObject.CborByteArray(data));
+        state.put("link", new CborObject.CborMerkleLink(cid));
+        state.put("grid", new CborObject.CborList(List.of(
+                new CborObject.CborList(List.of(new CborObject.CborLong(1), new CborObject.CborLong(-2))),
+                new CborObject.CborList(List.of()))));
+        state.put("items", new CborObject.CborList(List.of(((Cborable) custom).toCbor(), new CborObject.CborNull())));
+        state.put("custom", ((Cborable) custom).toCbor());
+        state.put("\u00e9t\"e", new CborObject.CborLong(3));
+        Assert.assertArrayEquals(CborObject.CborMap.build(state).toByteArray(), raw);
+
+        Object back = deserialize(loader, "sample.Outer_InnerCodec", raw);
+        Assert.assertArrayEquals(data, (byte[]) accessor(back, "data"));
+        for (String name : List.of("count", "flag", "real", "link", "grid", "items", "custom", "renamed"))
+            Assert.assertEquals(name, accessor(inner, name), accessor(back, name));
+    }
+
+    @Test
+    public void genericRecord() throws Exception {
+        assertError("@CborRecord records cannot be generic", Map.of("sample/Box.java", """
+                package sample;
+
+                @org.peergos.cbor.CborRecord
+                public record Box<T>(T value) {}
+                """));
+    }
+
+    @Test
+    public void privateRecord() throws Exception {
+        assertError("@CborRecord records must be visible to their package", Map.of("sample/Outer.java", """
+                package sample;
+
+                public class Outer {
+
+                    @org.peergos.cbor.CborRecord
+                    private record Hidden(String name) {}
+                }
+                """));
+    }
+
+    @Test
+    public void unsupportedTypes() throws Exception {
+        assertError("Unsupported type for dag-cbor: java.lang.Object", Map.of("sample/Loose.java", """
+                package sample;
+
+                @org.peergos.cbor.CborRecord
+                public record Loose(Object value) {}
+                """));
+        assertError("Unsupported type for dag-cbor: char", Map.of("sample/Letter.java", """
+                package sample;
+
+                @org.peergos.cbor.CborRecord
+                public record Letter(char value) {}
+                """));
+        assertError("Unsupported type for dag-cbor: sample.Plain", Map.of("sample/Holder.java", """
+                package sample;
+
+                @org.peergos.cbor.CborRecord
+                public record Holder(Plain value) {}
+
+                record Plain(String name) {}
+                """));
+        assertError("Lists must have a concrete item type: java.util.List<?>", Map.of("sample/Wild.java", """
+                package sample;
+
+                @org.peergos.cbor.CborRecord
+                public record Wild(java.util.List<?> values) {}
+                """));
+        assertError("Duplicate cbor key a", Map.of("sample/Twice.java", """
+                package sample;
+
+                import org.peergos.cbor.CborKey;
+
+                @org.peergos.cbor.CborRecord
+                public record Twice(String a, @CborKey("a") String b) {}
+                """));
+    }
+
+    private static void assertError(String message, Map<String, String> sources) throws IOException {
+        try {
+            compile(sources);
+            throw new RuntimeException("Should fail!");
+        } catch (CompileException e) {
+            Assert.assertTrue(e.getMessage(), e.errors.contains(message));
+        }
+    }
+
+    private static final class CompileException extends RuntimeException {
+        private final List<String> errors;
+
+        private CompileException(List<String> errors) {
+            super(String.join("\n", errors));
+            this.errors = errors;
+        }
+    }
+
+    /**
+     * Compiles sources, given by path, with the processor, and loads the results.
+     */
+    private static ClassLoader compile(Map<String, String> sources) throws IOException {
+        Path dir = Files.createTempDirectory("cbor-processor");
+        List<File> files = new ArrayList<>();
+        for (Map.Entry<String, String> e : sources.entrySet()) {
+            Path file = dir.resolve(e.getKey());
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, e.getValue());
+            files.add(file.toFile());
+        }
+        // the surefire class path may be a single manifest jar, so point at the dependencies directly
+        String classPath = classPath(CborRecord.class, Multihash.class, Cid.class);
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+                    List.of("-d", dir.toString(), "-classpath", classPath, "-Xlint:none"),
+                    null, fileManager.getJavaFileObjectsFromFiles(files));
+            task.setProcessors(List.of(new CborRecordProcessor()));
+            boolean success = task.call();
+            List<String> errors = diagnostics.getDiagnostics().stream()
+                    .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+                    .map(d -> d.getMessage(Locale.ROOT))
+                    .collect(Collectors.toList());
+            if (!success || !errors.isEmpty())
+                throw new CompileException(errors);
+        }
+        return new URLClassLoader(new URL[]{dir.toUri().toURL()}, CborRecordProcessorTest.class.getClassLoader());
+    }
+
+    private static String classPath(Class<?>... types) {
+        Set<String> res = new LinkedHashSet<>();
+        for (Class<?> type : types) {
+            try {
+                res.add(Paths.get(type.getProtectionDomain().getCodeSource().getLocation().toURI()).toString());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return String.join(File.pathSeparator, res);
+    }
+
+    private static Object create(ClassLoader loader, String name, Object... args) throws Exception {
+        Class<?> type = loader.loadClass(name);
+        Class<?>[] params = Arrays.stream(type.getRecordComponents()).map(RecordComponent::getType).toArray(Class<?>[]::new);
+        return type.getDeclaredConstructor(params).newInstance(args);
+    }
+
+    private static Object accessor(Object record, String name) throws Exception {
+        return record.getClass().getMethod(name).invoke(record);
+    }
+
+    private static byte[] serialize(ClassLoader loader, String codec, Object value) throws Exception {
+        return (byte[]) invoke(loader.loadClass(codec).getMethod("serialize", value.getClass()), value);
+    }
+
+    private static Object deserialize(ClassLoader loader, String codec, byte[] raw) throws Exception {
+        return invoke(loader.loadClass(codec).getMethod("deserialize", byte[].class), (Object) raw);
+    }
+
+    /**
+     * Calls a static method, rethrowing runtime exceptions from it as they are.
+     */
+    private static Object invoke(Method method, Object... args) throws Exception {
+        try {
+            return method.invoke(null, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+}